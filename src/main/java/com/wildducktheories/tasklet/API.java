@@ -38,6 +38,13 @@ public interface API extends com.wildducktheories.api.API {
 	 */
 	Scheduler newScheduler();
 
+	/**
+	 * @param options The options that select the implementation of the {@link Scheduler}. With no options, this
+	 * call is equivalent to {@link #newScheduler()}.
+	 * @return Answers a new {@link Scheduler}.
+	 */
+	Scheduler newScheduler(SchedulerOption... options);
+
 	/**
 	 * Used to cleanup the {@link SchedulerAPI} {@link ThreadLocal} associated with the current thread. This call is required
 	 * if, and only if, {@link API#getScheduler()} may have been called on a thread when a call
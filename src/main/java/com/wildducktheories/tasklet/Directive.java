@@ -26,5 +26,13 @@ public enum Directive {
 	 * Instructs a {@link Scheduler} that the execution of a {@link Tasklet} is complete. A {@link Scheduler}
 	 * receiving a {@link Tasklet} with this directive should remove all references to the related {@link Tasklet}.
 	 */
-	DONE
+	DONE,
+	/**
+	 * Instructs a {@link Scheduler} to run a {@link Tasklet} synchronously with respect to the scheduler's
+	 * main {@link Thread}, but possibly concurrently with other {@link Tasklet} instances scheduled with this
+	 * {@link Directive}. A phase scheduled in this way may read, but must not update, state that is shared with
+	 * synchronous {@link Tasklet} instances. A {@link Scheduler} that does not run such phases concurrently
+	 * treats this {@link Directive} as {@link #SYNC}.
+	 */
+	READ
 }
@@ -1,5 +1,7 @@
 package com.wildducktheories.tasklet;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 
 
@@ -26,7 +28,7 @@ package com.wildducktheories.tasklet;
  * @author jonseymour
  */
 public interface Scheduler
-	extends Runnable
+	extends Runnable, Executor
 {
 	/**
 	 * Enqueues a {@link Tasklet} with the specified {@link Directive}.
@@ -45,6 +47,10 @@ public interface Scheduler
 	 * If directive is ASYNC, then the {@link Tasklet} will be executed in some other thread other than
 	 * the scheduler's main thread.
 	 * <p>
+	 * If directive is READ, then the {@link Tasklet} will be executed while no synchronous {@link Tasklet} is
+	 * executing, possibly at the same time as other READ tasklets and on some thread other than the scheduler's
+	 * main thread.
+	 * <p>
 	 * If directive is WAIT, then the scheduler may retain a reference to the {@link Tasklet} but doesn't otherwise execute it.
 	 * <p>
 	 * Callers use the WAIT directive to prevent the scheduler's main thread terminating before the {@link Tasklet}
@@ -56,11 +62,37 @@ public interface Scheduler
 	 */
 	Scheduler schedule(Tasklet t, Directive directive);
 
+	/**
+	 * Enqueues a {@link Tasklet} with the specified {@link Directive} once the specified delay has elapsed.
+	 * <p>
+	 * Until the delay elapses, the {@link Tasklet} is suspended as if by {@link #suspend(Tasklet)}, so the scheduler
+	 * does not stop while the delay is pending. Delays are measured with {@link System#nanoTime()} and expire on the
+	 * scheduler's synchronous thread; no thread sleeps on behalf of the {@link Tasklet}.
+	 * <p>
+	 * A {@link Tasklet} that delays itself in this way from a synchronous phase should return {@link Directive#WAIT}.
+	 *
+	 * @param t The {@link Tasklet} to be scheduled with the scheduler.
+	 * @param directive The scheduling directive to be applied when the delay has elapsed.
+	 * @param delay The delay. If it is not positive, this call is equivalent to <code>schedule(t, directive)</code>.
+	 * @param unit The unit of the delay.
+	 * @return The receiver.
+	 * @throws SchedulerNotRunningException If the delay is positive and the scheduler runs SYNC tasklets from
+	 * schedule() calls, as the default scheduler of a thread does, but no scheduling loop is active to expire it.
+	 */
+	Scheduler schedule(Tasklet t, Directive directive, long delay, TimeUnit unit);
+
 	/**
 	 * Suspend the execution of the specified {@link Tasklet} in exchange for a {@link Rescheduler}
 	 * which may be used to resume execution of the {@link Tasklet} at some later time.
 	 * <p>
 	 * This call is equivalent to <code>scheduler(t, Directive.WAIT)</code>
+	 * <p>
+	 * The returned {@link Rescheduler} may be used to resume the {@link Tasklet} only once. Implementations
+	 * may throw an {@link IllegalStateException} if it is used again.
+	 * <p>
+	 * Scheduling the {@link Tasklet} directly with any directive other than WAIT, or suspending it again, cancels
+	 * the suspension, including one made by {@link #schedule(Tasklet, Directive, long, TimeUnit)}. The
+	 * {@link Rescheduler} is then stale and implementations may throw an {@link IllegalStateException} if it is used.
 	 *
 	 * @param t The tasklet to be requeued at a later time.
 	 * @return A {@link Rescheduler} that MUST be used to requeue the specified
@@ -69,6 +101,65 @@ public interface Scheduler
 	 */
 	public Rescheduler suspend(Tasklet t);
 
+	/**
+	 * Move a {@link Tasklet} to another {@link Scheduler}.
+	 * <p>
+	 * A {@link Tasklet} calls this method from one of its phases on the receiver, then returns the answered
+	 * {@link Directive}. Once that invocation has returned, the receiver removes the {@link Tasklet} and
+	 * schedules it with the target as if by <code>target.schedule(t, Directive.SYNC)</code>, so its next phase runs
+	 * on the target's synchronous thread, where {@link API#getScheduler()} answers the target. The
+	 * receiver never knows the {@link Tasklet} as runnable while the target does, and no asynchronous thread is
+	 * used for the move.
+	 *
+	 * @param t The {@link Tasklet} to be moved.
+	 * @param target The {@link Scheduler} to move it to.
+	 * @return The {@link Directive} the {@link Tasklet} must return: {@link Directive#WAIT}, or {@link Directive#SYNC}
+	 * if the target is the receiver.
+	 * @throws SchedulerConfinementException If the target was created with {@link SchedulerOption#CONFINED} and the
+	 * current thread is not its owner, since the target could not accept the {@link Tasklet} once it had left the
+	 * receiver. The {@link Tasklet} stays with the receiver.
+	 */
+	Directive migrate(Tasklet t, Scheduler target);
+
+	/**
+	 * Runs the specified {@link Runnable} on the scheduler's synchronous thread.
+	 * <p>
+	 * This allows code that expects an {@link Executor} to target the synchronous thread without wrapping each
+	 * {@link Runnable} in a {@link Tasklet}. The {@link Runnable} has the same access to the synchronous thread's
+	 * state as a synchronous {@link Tasklet} phase and should follow the same guidelines. It runs once the
+	 * scheduling loop is active and, while it is pending, prevents the loop from stopping. A scheduler that runs
+	 * SYNC tasklets from schedule() calls without a loop, as the default scheduler of a thread does, does not run
+	 * commands until {@link #run()} or {@link #step(int, long, TimeUnit)} is next called.
+	 *
+	 * @param command The {@link Runnable} to be run.
+	 */
+	void execute(Runnable command);
+
+	/**
+	 * Runs ready work on the current thread without blocking, so that a host event loop can drive the scheduler.
+	 * <p>
+	 * Commands submitted with {@link #execute(Runnable)}, expired timers and ready SYNC and READ tasklets are run
+	 * until either the limit or the timeout is reached or nothing is ready; the call never waits for work to arrive.
+	 * The first call makes the current thread the scheduler's synchronous thread for the life of the scheduler, and
+	 * ASYNC phases may be scheduled from then on as if {@link #run()} were active. The host is expected to call this
+	 * method again when the answer is positive and otherwise no later than the delay answered by
+	 * {@link #nextDeadline(TimeUnit)}.
+	 *
+	 * @param limit The maximum number of commands, timers and tasklets to run. At least one turn is taken.
+	 * @param timeout The time after which no new work is started.
+	 * @param unit The unit of the timeout.
+	 * @return The number of ready tasklets still waiting, plus one if commands or expired timers are waiting;
+	 * 0 if nothing is ready; -1 if the scheduler has no work of any kind left.
+	 * @throws IllegalStateException If another thread is the scheduler's synchronous thread.
+	 */
+	int step(int limit, long timeout, TimeUnit unit);
+
+	/**
+	 * @param unit The unit of the answer.
+	 * @return The time until the earliest timer expires, 0 if it already has, or -1 if there are no timers.
+	 */
+	long nextDeadline(TimeUnit unit);
+
 	/**
 	 * Blocks until all suspended {@link Tasklet} instances have been resumed and all synchronous and asynchronous {@link Tasklet} instances
 	 * have finished executing. If the scheduler doesn't currently have a synchronous thread, then
@@ -0,0 +1,20 @@
+package com.wildducktheories.tasklet;
+
+/**
+ * This exception is thrown when a {@link Scheduler} created with {@link SchedulerOption#CONFINED} is used from
+ * a thread other than the one that created it.
+ * <p>
+ * A confined scheduler takes no locks, so it cannot accept work from another thread, even to resume a suspended
+ * {@link Tasklet}. Work that must cross threads should use a scheduler created without that option.
+ * @author jonseymour
+ */
+public class SchedulerConfinementException extends IllegalStateException {
+
+	private static final long serialVersionUID = 4790370152208147615L;
+
+	public SchedulerConfinementException(Thread owner) {
+		super("Illegal attempt to use a scheduler confined to thread '" + owner.getName() + "' from thread '"
+			+ Thread.currentThread().getName() + "'.");
+	}
+
+}
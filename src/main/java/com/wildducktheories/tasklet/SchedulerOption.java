@@ -0,0 +1,17 @@
+package com.wildducktheories.tasklet;
+
+/**
+ * Options that select the implementation of a {@link Scheduler} created by {@link API#newScheduler(SchedulerOption...)}.
+ *
+ * @author jonseymour
+ */
+public enum SchedulerOption {
+
+	/**
+	 * The scheduler is confined to the thread that created it, which is its synchronous thread. It takes no locks,
+	 * supports no {@link Directive#ASYNC} phases and runs {@link Directive#READ} phases as {@link Directive#SYNC}
+	 * phases. Every method, including the methods of the {@link Rescheduler} instances it answers, throws a
+	 * {@link SchedulerConfinementException} when called from any other thread.
+	 */
+	CONFINED
+}
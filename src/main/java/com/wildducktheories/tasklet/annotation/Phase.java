@@ -0,0 +1,35 @@
+package com.wildducktheories.tasklet.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+
+/**
+ * Marks a method of a {@link Sequential} class as one phase of its tasklet.
+ * <p>
+ * A {@link Directive#SYNC}, {@link Directive#ASYNC} or {@link Directive#READ} phase takes no arguments and returns void, or boolean to
+ * indicate whether the tasklet continues with the next phase (true) or is done (false).
+ * <p>
+ * A {@link Directive#WAIT} phase takes a {@link Rescheduler} and returns void. It always runs on the scheduler's
+ * synchronous thread, after the tasklet has been suspended: if the phase before it is not a SYNC phase, the
+ * tasklet returns {@link Directive#SYNC} to get there. It must arrange for the tasklet to be resumed, normally with
+ * the directive of the phase that follows it, or {@link Directive#SYNC} if that is also a WAIT phase. The first
+ * phase may not be a WAIT phase.
+ * <p>
+ * Phase methods must not be private, static or abstract, and must not declare checked exceptions.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Phase {
+
+	/**
+	 * @return The directive the phase runs with.
+	 */
+	Directive value();
+}
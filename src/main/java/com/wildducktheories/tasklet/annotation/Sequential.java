@@ -0,0 +1,30 @@
+package com.wildducktheories.tasklet.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Marks a class whose {@link Phase} methods, taken in declaration order, are the phases of a {@link Tasklet}.
+ * <p>
+ * For a class <code>Foo</code>, {@link SequentialProcessor} generates <code>FooTasklet</code> in the same package.
+ * It extends <code>Foo</code>, implements {@link Tasklet}, has a constructor for each non-private constructor of
+ * <code>Foo</code> and declares <code>INITIAL</code>, the {@link com.wildducktheories.tasklet.Directive} with
+ * which a new instance should first be scheduled. Its task() method is a switch on a single int field that
+ * calls the phase methods directly: consecutive phases with the same directive run in one invocation, and no
+ * transition allocates or uses reflection.
+ * <p>
+ * Values that live across phases are fields of the annotated class.
+ * <p>
+ * The annotated class must be top-level or a static nested class, must not be private, final or generic, and must
+ * not itself implement {@link Tasklet}.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Sequential {
+}
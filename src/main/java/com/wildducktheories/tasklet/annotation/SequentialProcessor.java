@@ -0,0 +1,313 @@
+package com.wildducktheories.tasklet.annotation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Generates the {@link Tasklet} of each {@link Sequential} class.
+ * <p>
+ * The phase methods are called by the generated task() method, which is a switch with one case per phase. Each
+ * case advances the state and calls its phase. If the next phase has the same directive as the one the tasklet is
+ * running with, the case falls through to it; otherwise it answers the directive of the next phase, or
+ * {@link Directive#WAIT} after a WAIT phase. A WAIT phase always runs on the synchronous thread, so that the
+ * tasklet is suspended there: it is treated as a SYNC phase when choosing the directive that precedes it, and a
+ * tasklet suspended by one WAIT phase should be resumed with SYNC if the next phase is also a WAIT phase. For
+ * example, given phases <code>a</code> (SYNC), <code>b</code> (ASYNC) and <code>c</code> (SYNC):
+ * <pre>
+ * switch (state) {
+ * case 0:
+ *     state = 1;
+ *     a();
+ *     return Directive.ASYNC;
+ * case 1:
+ *     state = 2;
+ *     b();
+ *     return Directive.SYNC;
+ * case 2:
+ *     state = 3;
+ *     c();
+ * default:
+ *     return Directive.DONE;
+ * }
+ * </pre>
+ */
+public class SequentialProcessor extends AbstractProcessor {
+
+	private static final String DIRECTIVE = Directive.class.getCanonicalName();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(Sequential.class.getCanonicalName());
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (Element element : round.getElementsAnnotatedWith(Sequential.class)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@Sequential applies only to classes");
+				continue;
+			}
+			final TypeElement type = (TypeElement)element;
+			if (check(type)) {
+				final List<ExecutableElement> phases = phases(type);
+				if (phases != null) {
+					generate(type, phases);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return True if the class itself can be extended by a generated tasklet.
+	 */
+	private boolean check(TypeElement type) {
+		final Set<Modifier> modifiers = type.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+			error(type, "a @Sequential class must not be private or final");
+			return false;
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL
+			&& !(type.getNestingKind() == NestingKind.MEMBER && modifiers.contains(Modifier.STATIC))) {
+			error(type, "a @Sequential class must be top-level or a static nested class");
+			return false;
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			error(type, "a @Sequential class must not be generic");
+			return false;
+		}
+		final TypeMirror tasklet = processingEnv.getElementUtils().getTypeElement(Tasklet.class.getCanonicalName()).asType();
+		if (processingEnv.getTypeUtils().isAssignable(type.asType(), tasklet)) {
+			error(type, "a @Sequential class must not implement Tasklet");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The phases of the class in declaration order, or null if any phase is invalid.
+	 */
+	private List<ExecutableElement> phases(TypeElement type) {
+		final List<ExecutableElement> phases = new ArrayList<ExecutableElement>();
+		boolean valid = true;
+		for (Element e : type.getEnclosedElements()) {
+			if (e.getKind() != ElementKind.METHOD || e.getAnnotation(Phase.class) == null) {
+				continue;
+			}
+			final ExecutableElement method = (ExecutableElement)e;
+			valid &= check(method, phases.isEmpty());
+			phases.add(method);
+		}
+		if (phases.isEmpty()) {
+			error(type, "a @Sequential class must have at least one @Phase method");
+			return null;
+		}
+		return valid ? phases : null;
+	}
+
+	/**
+	 * @return True if the method is a valid phase.
+	 */
+	private boolean check(ExecutableElement method, boolean first) {
+		final Directive directive = method.getAnnotation(Phase.class).value();
+		final Set<Modifier> modifiers = method.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.ABSTRACT)) {
+			error(method, "a @Phase method must not be private, static or abstract");
+			return false;
+		}
+		for (TypeMirror thrown : method.getThrownTypes()) {
+			if (!unchecked(thrown)) {
+				error(method, "a @Phase method must not declare checked exceptions");
+				return false;
+			}
+		}
+		final List<? extends VariableElement> parameters = method.getParameters();
+		final TypeKind result = method.getReturnType().getKind();
+		switch (directive) {
+		case SYNC:
+		case ASYNC:
+		case READ:
+			if (!parameters.isEmpty() || (result != TypeKind.VOID && result != TypeKind.BOOLEAN)) {
+				error(method, "a " + directive + " phase must take no arguments and return void or boolean");
+				return false;
+			}
+			return true;
+		case WAIT:
+			if (first) {
+				error(method, "the first phase must not be a WAIT phase");
+				return false;
+			}
+			if (parameters.size() != 1 || result != TypeKind.VOID
+				|| !parameters.get(0).asType().toString().equals(Rescheduler.class.getCanonicalName())) {
+				error(method, "a WAIT phase must take a Rescheduler and return void");
+				return false;
+			}
+			return true;
+		default:
+			error(method, "a phase must be SYNC, ASYNC, READ or WAIT");
+			return false;
+		}
+	}
+
+	private boolean unchecked(TypeMirror thrown) {
+		for (Class<?> c : new Class<?>[] { RuntimeException.class, Error.class }) {
+			final TypeMirror t = processingEnv.getElementUtils().getTypeElement(c.getCanonicalName()).asType();
+			if (processingEnv.getTypeUtils().isSubtype(thrown, t)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void generate(TypeElement type, List<ExecutableElement> phases) {
+		final String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		final String name = type.getSimpleName() + "Tasklet";
+		final String qualified = pkg.isEmpty() ? name : pkg + "." + name;
+		final boolean visible = type.getModifiers().contains(Modifier.PUBLIC);
+		final int n = phases.size();
+
+		final StringBuilder b = new StringBuilder();
+		if (!pkg.isEmpty()) {
+			b.append("package ").append(pkg).append(";\n\n");
+		}
+		b.append("/**\n * Generated by ").append(SequentialProcessor.class.getName())
+			.append(" from {@link ").append(type.getQualifiedName()).append("}. Do not edit.\n */\n");
+		b.append(visible ? "public " : "").append("class ").append(name)
+			.append(" extends ").append(type.getQualifiedName())
+			.append(" implements ").append(Tasklet.class.getCanonicalName()).append(" {\n\n");
+
+		Directive current = phases.get(0).getAnnotation(Phase.class).value();
+		b.append("\t/**\n\t * The directive with which a new instance should first be scheduled.\n\t */\n");
+		b.append("\tpublic static final ").append(DIRECTIVE).append(" INITIAL = ")
+			.append(DIRECTIVE).append('.').append(current).append(";\n\n");
+		b.append("\tprivate int state;\n");
+
+		for (Element e : type.getEnclosedElements()) {
+			if (e.getKind() == ElementKind.CONSTRUCTOR && !e.getModifiers().contains(Modifier.PRIVATE)) {
+				constructor(b, name, (ExecutableElement)e);
+			}
+		}
+
+		// consecutive phases with the same directive fall through, which -Xlint would otherwise report.
+		b.append("\n\t@Override\n\t@SuppressWarnings(\"fallthrough\")\n\tpublic ").append(DIRECTIVE).append(" task() {\n");
+		b.append("\t\tswitch (state) {\n");
+		for (int i = 0; i < n; i++) {
+			final ExecutableElement method = phases.get(i);
+			final Directive directive = method.getAnnotation(Phase.class).value();
+			final String call = method.getSimpleName().toString();
+
+			b.append("\t\tcase ").append(i).append(":\n");
+			b.append("\t\t\tstate = ").append(i + 1).append(";\n");
+			if (directive == Directive.WAIT) {
+				b.append("\t\t\t").append(call).append("(com.wildducktheories.tasklet.SchedulerAPI.get().getScheduler().suspend(this));\n");
+			} else if (method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+				b.append("\t\t\tif (!").append(call).append("()) {\n");
+				b.append("\t\t\t\tstate = ").append(n).append(";\n");
+				b.append("\t\t\t\treturn ").append(DIRECTIVE).append(".DONE;\n");
+				b.append("\t\t\t}\n");
+			} else {
+				b.append("\t\t\t").append(call).append("();\n");
+			}
+
+			if (i + 1 == n) {
+				break;
+			}
+			final Directive next = phases.get(i + 1).getAnnotation(Phase.class).value();
+			// a WAIT phase suspends the tasklet, which must happen on the synchronous thread.
+			final Directive runs = next == Directive.WAIT ? Directive.SYNC : next;
+			if (directive == Directive.WAIT) {
+				// the tasklet is resumed with the directive of the next phase.
+				b.append("\t\t\treturn ").append(DIRECTIVE).append(".WAIT;\n");
+				current = runs;
+			} else if (runs == current) {
+				b.append("\t\t\t// fall through\n");
+			} else {
+				b.append("\t\t\treturn ").append(DIRECTIVE).append('.').append(runs).append(";\n");
+				current = runs;
+			}
+		}
+		if (phases.get(n - 1).getAnnotation(Phase.class).value() == Directive.WAIT) {
+			b.append("\t\t\treturn ").append(DIRECTIVE).append(".WAIT;\n");
+		}
+		b.append("\t\tdefault:\n");
+		b.append("\t\t\treturn ").append(DIRECTIVE).append(".DONE;\n");
+		b.append("\t\t}\n\t}\n}\n");
+
+		try {
+			final Writer w = processingEnv.getFiler().createSourceFile(qualified, type).openWriter();
+			try {
+				w.write(b.toString());
+			} finally {
+				w.close();
+			}
+		} catch (IOException e) {
+			error(type, "unable to write " + qualified + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Append a constructor that delegates to the specified constructor of the superclass.
+	 */
+	private void constructor(StringBuilder b, String name, ExecutableElement c) {
+		final Set<Modifier> modifiers = c.getModifiers();
+		b.append("\n\t");
+		if (modifiers.contains(Modifier.PUBLIC)) {
+			b.append("public ");
+		} else if (modifiers.contains(Modifier.PROTECTED)) {
+			b.append("protected ");
+		}
+		b.append(name).append('(');
+		final StringBuilder args = new StringBuilder();
+		final List<? extends VariableElement> parameters = c.getParameters();
+		for (int i = 0; i < parameters.size(); i++) {
+			if (i > 0) {
+				b.append(", ");
+				args.append(", ");
+			}
+			final TypeMirror t = parameters.get(i).asType();
+			if (c.isVarArgs() && i == parameters.size() - 1) {
+				b.append(t.toString().replaceFirst("\\[\\]$", "...")).append(" arg").append(i);
+			} else {
+				b.append(t).append(" arg").append(i);
+			}
+			args.append("arg").append(i);
+		}
+		b.append(')');
+		final List<? extends TypeMirror> thrown = c.getThrownTypes();
+		for (int i = 0; i < thrown.size(); i++) {
+			b.append(i == 0 ? " throws " : ", ").append(thrown.get(i));
+		}
+		b.append(" {\n\t\tsuper(").append(args).append(");\n\t}\n");
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
@@ -7,6 +7,7 @@ import java.util.concurrent.Executors;
 import com.wildducktheories.tasklet.API;
 import com.wildducktheories.tasklet.Scheduler;
 import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerOption;
 import com.wildducktheories.tasklet.Tasklet;
 
 public class APIImpl implements API {
@@ -52,6 +53,16 @@ public class APIImpl implements API {
 		return new AsynchronousSchedulerImpl(this, executor);
 	}
 
+	@Override
+	public Scheduler newScheduler(SchedulerOption... options) {
+		for (SchedulerOption option : options) {
+			if (option == SchedulerOption.CONFINED) {
+				return new ConfinedSchedulerImpl(this);
+			}
+		}
+		return newScheduler();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -1,12 +1,19 @@
 package com.wildducktheories.tasklet.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.wildducktheories.tasklet.API;
 import com.wildducktheories.tasklet.Directive;
@@ -30,6 +37,16 @@ import com.wildducktheories.tasklet.Tasklet;
  */
 public class AsynchronousSchedulerImpl implements Scheduler {
 
+	/**
+	 * The maximum number of commands the scheduling loop runs before it next looks for a {@link Tasklet}.
+	 */
+	private static final int BATCH = 64;
+
+	/**
+	 * The maximum number of SYNC tasklets the scheduling loop runs while READ tasklets are waiting.
+	 */
+	private static final int WRITES = 64;
+
 	/**
 	 * The directives.
 	 */
@@ -47,11 +64,154 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 	 */
 	private Set<Tasklet> sync = new LinkedHashSet<Tasklet>();
 
+	/**
+	 * The {@link Tasklet} instances waiting to run a {@link Directive#READ} phase in the next batch of readers.
+	 */
+	private final Set<Tasklet> reads = new LinkedHashSet<Tasklet>();
+
+	/**
+	 * Runs the readers of each batch that do not run on the synchronous thread. READ phases do not block, so
+	 * one pool is shared by all schedulers, but it is kept apart from their executors: a batch must never wait
+	 * behind ASYNC phases, which may themselves be waiting for the synchronous thread.
+	 */
+	private static final ExecutorService READERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "tasklet-reader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * The number of readers of the current batch still running on other threads. While it is positive, the
+	 * synchronous thread runs no SYNC tasklets and no commands. Only decremented by other threads, so a value
+	 * of 0 seen by the synchronous thread stays 0 until it starts another batch.
+	 */
+	private volatile int readers;
+
+	/**
+	 * The number of SYNC tasklets dequeued by the scheduling loop since the last batch of readers.
+	 * Only accessed by the synchronous thread.
+	 */
+	private int writes;
+
+	/**
+	 * True while schedule() must not run SYNC tasklets on the synchronous thread: while that thread runs its
+	 * share of a batch of readers, or while a host steps the scheduler. Only accessed by the synchronous thread.
+	 */
+	private boolean deferring;
+
+	/**
+	 * The {@link Tasklet} instances that have asked to be moved to another {@link Scheduler} when they next
+	 * return {@link Directive#WAIT}, and their targets.
+	 */
+	private final Map<Tasklet, Scheduler> migrations = new IdentityHashMap<Tasklet, Scheduler>();
+
+	/**
+	 * The commands submitted with {@link #execute(Runnable)}, which need neither the monitor nor
+	 * an entry in directives.
+	 */
+	private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * True while the scheduling loop waits on the monitor, so that {@link #execute(Runnable)} only
+	 * takes the monitor when the loop needs to be woken.
+	 */
+	private volatile boolean waiting;
+
+	/**
+	 * The {@link Tasklet} instances suspended with {@link #suspend(Tasklet)}.
+	 */
+	private final HandleTable handles = new HandleTable();
+
+	/**
+	 * The pending timers, ordered by deadline. The tasklet of each timer is held in handles until
+	 * the timer expires.
+	 */
+	private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+
+	/**
+	 * The sequence number of the last timer, used to expire timers with equal deadlines in the
+	 * order they were created.
+	 */
+	private long timerSequence;
+
+	/**
+	 * The number of {@link #resume(long, Directive)} calls that have removed a {@link Tasklet} from
+	 * handles but not yet rescheduled it, plus the number of migrating tasklets that have been removed
+	 * but not yet scheduled with their targets.
+	 */
+	private int resuming;
+
+	/**
+	 * The {@link Tasklet} whose task() method is being invoked on the synchronous thread, or null.
+	 * Only accessed by the synchronous thread.
+	 */
+	private Tasklet running;
+
+	/**
+	 * The {@link Tasklet} instances whose task() methods are being invoked on the synchronous thread, innermost
+	 * last. Invocations nest when a tasklet calls schedule() on the synchronous thread. A tasklet on this stack
+	 * is not invoked again, even if another thread resumes it, until its current invocation has returned.
+	 * Only accessed by the synchronous thread.
+	 */
+	private Tasklet[] active = new Tasklet[8];
+
+	/**
+	 * The number of {@link Tasklet} instances on the active stack.
+	 * Only accessed by the synchronous thread.
+	 */
+	private int depth;
+
+	/**
+	 * True if running has suspended itself during its current invocation.
+	 * Only accessed by the synchronous thread.
+	 */
+	private boolean suspended;
+
+	/**
+	 * A {@link Tasklet} whose last invocation on the synchronous thread suspended itself and then
+	 * returned WAIT, or null. That WAIT is redundant because the tasklet is already tracked by handles.
+	 * Only accessed by the synchronous thread.
+	 */
+	private Tasklet parked;
+
+	/**
+	 * True if a {@link Watchdog} samples the synchronous thread.
+	 */
+	private boolean monitored;
+
+	/**
+	 * The {@link Tasklet} of the outermost dispatch last published.
+	 */
+	private Tasklet sampled;
+
+	/**
+	 * Set when the outermost dispatch last published returns, so that the work of the scheduling loop is not
+	 * charged to its tasklet. A plain write: a {@link Watchdog} may see it a little late, but it is published by
+	 * the next dispatch at the latest.
+	 */
+	private boolean ended;
+
+	/**
+	 * Incremented by the synchronous thread each time it publishes sampled, so that a {@link Watchdog}
+	 * can tell one invocation from the next. Only the outermost dispatch publishes, on entry, so a dispatch
+	 * costs at most one volatile write, and a tasklet that runs others by scheduling them remains the occupant
+	 * while they run.
+	 */
+	private volatile long published;
+
 	/**
 	 * The scheduler {@link Thread}.
 	 */
 	private Thread main;
 
+	/**
+	 * True once {@link #step(int, long, TimeUnit)} has been called. The caller is then the synchronous thread
+	 * for good and is treated as if a scheduling loop were active on it.
+	 */
+	private boolean hosted;
+
 	/**
 	 * This value is 2*r+auto, where r is the number of active calls
 	 * to run on the synchronous thread and auto is 1 if setAuto(boolean)
@@ -107,7 +267,7 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 				// is active on the synchronous thread.
 
 				runLevel ^= 1;
-				if (runLevel == 0) {
+				if (runLevel == 0 && !hosted) {
 					main = null;
 				}
 			}
@@ -133,13 +293,17 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 			do {
 				next = null;
 				synchronized (this) {
-					if (sync.size() == 0 && main == Thread.currentThread()) {
+					if (sync.size() == 0 && main == Thread.currentThread() && !deferring && readers == 0 && !isActive(t)) {
 						next = t;
+						if (handles.size() > 0) {
+							// rescheduling a suspended tasklet cancels its suspension.
+							handles.remove(t);
+						}
 					}
 				}
 
 				if (next != null) {
-					directive = next.task();
+					directive = dispatch(next);
 					switch (directive) {
 					case DONE:
 						synchronized (this) {
@@ -177,7 +341,7 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 
 			synchronized (this) {
 				if (sync.size() > 0) {
-					if (main == Thread.currentThread()) {
+					if (main == Thread.currentThread() && !deferring && readers == 0) {
 						next = dequeue();
 					}
 				}
@@ -185,7 +349,7 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 
 			if (next != null) {
 				try {
-					directive = next.task();
+					directive = dispatch(next);
 				} catch (RuntimeException e) {
 					// TODO: allow scheduler to specify exception
 					// handling policy for this case.
@@ -208,6 +372,8 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 	 * <dd>put t, WAIT into directives; start async thread for t; remove t from sync.</dd>
 	 * <dt>WAIT</dt>
 	 * <dd>put t, WAIT into directives; remove t from sync.</dd>
+	 * <dt>READ</dt>
+	 * <dd>put t, READ into directives; t put into reads. Without a scheduling loop, as for SYNC.</dd>
 	 * <dt>DONE</dt>
 	 * <dd>remove t from directives and sync.</dd>
 	 * </dl>
@@ -218,12 +384,40 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 	private void scheduleCore(final Tasklet t, Directive directive)
 		throws SchedulerNotRunningException
 	{
+		Scheduler target = null;
 
 		synchronized (this) {
 
+			if (directive == Directive.WAIT && main == Thread.currentThread() && t == parked) {
+				// t suspended itself during the invocation that returned WAIT, so it is already
+				// tracked by its handle or, if another thread has since resumed it, by sync and directives.
+				parked = null;
+				return;
+			}
+
+			if (directive != Directive.WAIT && handles.size() > 0) {
+				// rescheduling a suspended tasklet cancels its suspension, so its handle does not keep the loop alive.
+				handles.remove(t);
+			}
+
+			if (migrations.size() > 0) {
+				target = migrations.remove(t);
+				if (directive != Directive.WAIT) {
+					// t did not return the directive answered by migrate(), so it stays here.
+					target = null;
+				} else if (target != null) {
+					// until the target has t, this scheduler must not stop.
+					resuming++;
+				}
+			}
+
 			sync.remove(t);
+			if (reads.size() > 0) {
+				reads.remove(t);
+			}
 
-			switch (directive) {
+			// as far as this scheduler is concerned, a migrating tasklet is done.
+			switch (target != null ? Directive.DONE : directive) {
 			case SYNC:
 				directives.put(t, directive);
 				sync.add(t);
@@ -231,8 +425,18 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 			case WAIT:
 				directives.put(t, directive);
 				break;
+			case READ:
+				if (runLevel < 2 && !hosted) {
+					// there are no batches of readers without a scheduling loop, so t runs as a writer.
+					directives.put(t, Directive.SYNC);
+					sync.add(t);
+				} else {
+					directives.put(t, directive);
+					reads.add(t);
+				}
+				break;
 			case ASYNC:
-				if (runLevel < 2) {
+				if (runLevel < 2 && !hosted) {
 					// To avoid this exception, the run method
 					// (and hence a scheduling loop) must be
 					// active on one thread.
@@ -255,6 +459,18 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 			}
 			this.notifyAll();
 		}
+
+		if (target != null) {
+			// t has finished its invocation and is no longer known here, so the target may run it at once.
+			try {
+				target.schedule(t, Directive.SYNC);
+			} finally {
+				synchronized (this) {
+					resuming--;
+					notifyAll();
+				}
+			}
+		}
 	}
 
 	/**
@@ -268,7 +484,7 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 		do {
 			api.with(this, new Tasklet() {
 				public Directive task() {
-					synchronized (this) {
+					synchronized (AsynchronousSchedulerImpl.this) {
 						while ((main != null && main != Thread.currentThread())) {
 							return Directive.DONE;
 						}
@@ -277,43 +493,18 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 					}
 
 					try {
-
-						while (true) {
-
-							Tasklet next = null;
-
-							synchronized(AsynchronousSchedulerImpl.this) {
-								if (sync.size() == 0) {
-									if (directives.size() == 0) {
-										return Directive.DONE;
-									} else {
-										try {
-											AsynchronousSchedulerImpl.this.wait();
-										} catch (InterruptedException i) {
-											return Directive.DONE;
-										}
-									}
-								} else {
-									next = dequeue();
-								}
-							}
-
-							if (next != null) {
-								try {
-									schedule(next, next.task());
-								} catch (RuntimeException r) {
-									schedule(next, Directive.DONE);
-								}
-							}
+						while (turn(true) >= 0) {
 						}
-
+						return Directive.DONE;
+					} catch (InterruptedException i) {
+						return Directive.DONE;
 					} finally {
-						synchronized (this) {
+						synchronized (AsynchronousSchedulerImpl.this) {
 							runLevel -= 2;
-							if (runLevel == 0) {
+							if (runLevel == 0 && !hosted) {
 								main = null;
 							}
-							this.notifyAll();
+							AsynchronousSchedulerImpl.this.notifyAll();
 						}
 					}
 				}
@@ -321,7 +512,7 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 			});
 
 			synchronized (this) {
-				done = (main == null);
+				done = (main == null || main == Thread.currentThread());
 				if (!done) {
 					try {
 						this.wait();
@@ -334,39 +525,490 @@ public class AsynchronousSchedulerImpl implements Scheduler {
 		} while (!done);
 	}
 
+	/**
+	 * The first call makes the calling thread the synchronous thread for the rest of the life of the scheduler, as
+	 * if a scheduling loop were always active on it, so ASYNC and READ phases may be scheduled between steps.
+	 */
+	@Override
+	public int step(final int limit, long timeout, TimeUnit unit) {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (this) {
+			if (main != null && main != Thread.currentThread()) {
+				throw new IllegalStateException("illegal state: the scheduler has another synchronous thread");
+			}
+			main = Thread.currentThread();
+			hosted = true;
+		}
+
+		// a step runs one phase per turn, rather than every SYNC phase that becomes ready.
+		final boolean outerDeferring = deferring;
+		deferring = true;
+		try {
+			api.with(this, new Tasklet() {
+				public Directive task() {
+					try {
+						int ran = 0;
+						while (ran < limit) {
+							final int n = turn(false);
+							if (n <= 0) {
+								break;
+							}
+							ran += n;
+							if (System.nanoTime() - deadline >= 0) {
+								break;
+							}
+						}
+					} catch (InterruptedException e) {
+						// turn(false) does not wait.
+						Thread.currentThread().interrupt();
+					}
+					return Directive.DONE;
+				}
+			});
+		} finally {
+			deferring = outerDeferring;
+		}
+
+		synchronized (this) {
+			if (sync.size() == 0 && reads.size() == 0 && commands.isEmpty() && timers.size() == 0
+				&& directives.size() == 0 && handles.size() == 0 && resuming == 0) {
+				return -1;
+			}
+			int ready = sync.size() + reads.size();
+			if (!commands.isEmpty() || (timers.size() > 0 && timers.peek().deadline - System.nanoTime() <= 0)) {
+				ready++;
+			}
+			return ready;
+		}
+	}
+
+	@Override
+	public synchronized long nextDeadline(TimeUnit unit) {
+		if (timers.size() == 0) {
+			return -1;
+		}
+		return unit.convert(Math.max(0, timers.peek().deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Take one turn of the scheduling loop on the synchronous thread: run a batch of commands, then expire one
+	 * timer, run one batch of readers or run one SYNC tasklet.
+	 *
+	 * @param block True if the turn may wait for work to arrive.
+	 * @return The number of commands, timers, readers and tasklets run, or -1 if the scheduler has nothing left
+	 * to do.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	private int turn(boolean block) throws InterruptedException {
+
+		// commands have the access of a SYNC phase, so they wait for a batch of readers too.
+		final int commanded = readers > 0 ? 0 : drain();
+
+		Tasklet next = null;
+		Timer expired = null;
+		List<Tasklet> batch = null;
+
+		synchronized (this) {
+			final long delay = timers.size() == 0 ? 0 : timers.peek().deadline - System.nanoTime();
+			if (timers.size() > 0 && delay <= 0) {
+				expired = timers.poll();
+				if (!handles.contains(expired.handle)) {
+					// the tasklet was rescheduled before its delay elapsed, which cancelled the timer.
+					return commanded + 1;
+				}
+			} else if (readers > 0) {
+				// a batch of readers is still running; its last reader wakes the loop.
+				if (block) {
+					if (delay > 0) {
+						TimeUnit.NANOSECONDS.timedWait(this, delay);
+					} else {
+						this.wait();
+					}
+				}
+			} else if (reads.size() > 0 && (sync.size() == 0 || writes >= WRITES)) {
+				batch = new ArrayList<Tasklet>(reads);
+				reads.clear();
+				for (Tasklet r : batch) {
+					directives.put(r, Directive.WAIT);
+				}
+				writes = 0;
+			} else if (sync.size() > 0 && (next = dequeue()) != null) {
+				writes++;
+			} else if (commanded > 0 || !commands.isEmpty()) {
+				// look for more commands before deciding there is nothing to do.
+			} else if (directives.size() == 0 && handles.size() == 0 && resuming == 0) {
+				// any timers left were cancelled.
+				timers.clear();
+				return -1;
+			} else if (block) {
+				waiting = true;
+				try {
+					// a command submitted before waiting was set has been seen by now.
+					if (commands.isEmpty()) {
+						if (delay > 0) {
+							TimeUnit.NANOSECONDS.timedWait(this, delay);
+						} else {
+							this.wait();
+						}
+					}
+				} finally {
+					waiting = false;
+				}
+			}
+		}
+
+		if (batch != null) {
+			read(batch, !block);
+			return commanded + batch.size();
+		}
+
+		if (expired != null) {
+			try {
+				resume(expired.handle, expired.directive);
+			} catch (RuntimeException e) {
+				e.printStackTrace(System.err);
+			}
+			return commanded + 1;
+		}
+
+		if (next != null) {
+			try {
+				schedule(next, dispatch(next));
+			} catch (RuntimeException r) {
+				schedule(next, Directive.DONE);
+			}
+			return commanded + 1;
+		}
+
+		return commanded;
+	}
+
+	/**
+	 * Start a batch of {@link Directive#READ} phases. The first runs on the synchronous thread. The others run on
+	 * the reader pool unless inline is true, in which case the synchronous thread runs them too, one after
+	 * another. The synchronous thread does not wait for the pool: it returns to the scheduling loop, which runs no
+	 * SYNC tasklet or command until the last reader has finished, so readers never overlap a writer. Called only
+	 * by the synchronous thread.
+	 */
+	private void read(List<Tasklet> batch, boolean inline) {
+		final int n = batch.size();
+		if (!inline && n > 1) {
+			synchronized (this) {
+				readers = n - 1;
+			}
+			for (int i = 1; i < n; i++) {
+				final Tasklet t = batch.get(i);
+				READERS.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							api.with(AsynchronousSchedulerImpl.this, t);
+						} catch (RuntimeException e) {
+							e.printStackTrace(System.err);
+							schedule(t, Directive.DONE);
+						} finally {
+							synchronized (AsynchronousSchedulerImpl.this) {
+								readers--;
+								AsynchronousSchedulerImpl.this.notifyAll();
+							}
+						}
+					}
+				});
+			}
+		}
+
+		final int count = inline ? n : 1;
+		final Directive[] directives = new Directive[count];
+		// whether each phase suspended itself and returned WAIT; each dispatch clears parked.
+		final boolean[] parks = new boolean[count];
+		final boolean outerDeferring = deferring;
+		deferring = true;
+		try {
+			for (int i = 0; i < count; i++) {
+				try {
+					directives[i] = dispatch(batch.get(i));
+					parks[i] = parked == batch.get(i);
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.err);
+					directives[i] = Directive.DONE;
+				}
+			}
+		} finally {
+			deferring = outerDeferring;
+		}
+		// while readers remain on the pool, a SYNC directive only queues its tasklet.
+		for (int i = 0; i < count; i++) {
+			// scheduleCore then recognises, under the monitor, the redundant WAIT of a phase that suspended itself,
+			// which another thread may already have resumed.
+			parked = parks[i] ? batch.get(i) : null;
+			schedule(batch.get(i), directives[i]);
+		}
+	}
+
+	/**
+	 * Commands are queued without taking the monitor, which is taken only to wake a waiting scheduling loop.
+	 * The loop runs them in batches of up to {@value #BATCH} between tasklets.
+	 */
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		commands.offer(command);
+		if (waiting) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Run the next batch of commands submitted with {@link #execute(Runnable)}. Called only by the synchronous thread.
+	 * @return The number of commands run.
+	 */
+	private int drain() {
+		for (int i = 0; i < BATCH; i++) {
+			final Runnable command = commands.poll();
+			if (command == null) {
+				return i;
+			}
+			try {
+				command.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace(System.err);
+			}
+		}
+		return BATCH;
+	}
+
+	/**
+	 * The move happens when the tasklet's WAIT reaches this scheduler, which then forgets the tasklet before
+	 * scheduling it with the target from the same thread. No executor thread is involved.
+	 */
+	@Override
+	public Directive migrate(Tasklet t, Scheduler target) {
+		if (target == this) {
+			return Directive.SYNC;
+		}
+		ConfinedSchedulerImpl.confine(target);
+		synchronized (this) {
+			migrations.put(t, target);
+		}
+		return Directive.WAIT;
+	}
+
+	/**
+	 * Suspended tasklets are kept in a {@link HandleTable} rather than in the directives map, so a suspension
+	 * costs a table slot and a small {@link Rescheduler} that refers to the tasklet by handle.
+	 */
 	@Override
 	public Rescheduler suspend(final Tasklet tasklet) {
-		schedule(tasklet, Directive.WAIT);
-		return new ReschedulerImpl(this, tasklet);
+		final long handle;
+		synchronized (this) {
+			handle = park(tasklet);
+		}
+		return new HandleReschedulerImpl(this, handle);
+	}
+
+	/**
+	 * The tasklet is suspended, exactly as by {@link #suspend(Tasklet)}, until a timer resumes it on the
+	 * synchronous thread. Timers only expire while the scheduling loop is running.
+	 */
+	@Override
+	public Scheduler schedule(final Tasklet t, Directive directive, long delay, TimeUnit unit) {
+		if (delay <= 0) {
+			return schedule(t, directive);
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(delay);
+		synchronized (this) {
+			if (runLevel < 2 && !hosted && main != null) {
+				// an automatic scheduler runs SYNC tasklets from schedule() calls, but timers expire only in a
+				// scheduling loop.
+				throw new SchedulerNotRunningException();
+			}
+			final Timer timer = new Timer(deadline, ++timerSequence, park(t), directive);
+			timers.add(timer);
+			if (timers.peek() == timer) {
+				// the scheduling loop may be waiting for a later deadline.
+				notifyAll();
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Move the specified {@link Tasklet} into handles. Called with the monitor held.
+	 * @return The tasklet's handle.
+	 */
+	private long park(Tasklet tasklet) {
+		sync.remove(tasklet);
+		directives.remove(tasklet);
+		// a later suspension replaces an earlier one.
+		handles.remove(tasklet);
+		if (main == Thread.currentThread() && tasklet == running) {
+			suspended = true;
+		}
+		return handles.add(tasklet);
 	}
 
 	/**
-	 * @return Answer the next synchronous Tasklet or null if there is none.
+	 * Resume the {@link Tasklet} identified by the specified handle.
+	 * @throws IllegalStateException If the handle has already been used to resume its tasklet.
+	 */
+	void resume(long handle, Directive directive) {
+		final Tasklet tasklet;
+		synchronized (this) {
+			tasklet = handles.remove(handle);
+			if (tasklet == null) {
+				throw new IllegalStateException("illegal state: the suspended tasklet has already been resumed");
+			}
+			// prevents the scheduling loop from exiting before the tasklet is rescheduled.
+			resuming++;
+		}
+		try {
+			schedule(tasklet, directive);
+		} finally {
+			synchronized (this) {
+				resuming--;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Invoke the task() method of the specified {@link Tasklet} on the synchronous thread, noting whether it
+	 * suspended itself. Invocations nest when a tasklet calls schedule() on the synchronous thread.
+	 */
+	private Directive dispatch(Tasklet t) {
+		final Tasklet outer = running;
+		final boolean outerSuspended = suspended;
+		if (depth == active.length) {
+			active = Arrays.copyOf(active, depth * 2);
+		}
+		if (monitored && depth == 0) {
+			publish(t);
+		}
+		active[depth++] = t;
+		running = t;
+		suspended = false;
+		parked = null;
+		try {
+			final Directive directive = t.task();
+			if (directive == Directive.WAIT && suspended) {
+				parked = t;
+			}
+			return directive;
+		} finally {
+			active[--depth] = null;
+			running = outer;
+			suspended = outerSuspended;
+			if (monitored && depth == 0) {
+				// the loop's own work is idle time, not the tasklet's.
+				ended = true;
+			}
+		}
+	}
+
+	/**
+	 * Publish the specified {@link Tasklet}, or null for idle, as the occupant of the synchronous thread.
+	 * Called only by the synchronous thread.
+	 */
+	private void publish(Tasklet t) {
+		sampled = t;
+		ended = false;
+		published = published + 1;
+	}
+
+	/**
+	 * Start publishing dispatches for a {@link Watchdog}.
+	 */
+	synchronized void monitor() {
+		monitored = true;
+	}
+
+	/**
+	 * @return The number of times the occupant of the synchronous thread has been published.
+	 */
+	long published() {
+		return published;
+	}
+
+	/**
+	 * @return The {@link Tasklet} last published, or null if its dispatch has returned. Only meaningful if
+	 * {@link #published()} is unchanged across the call.
+	 */
+	Tasklet sampled() {
+		return ended ? null : sampled;
+	}
+
+	/**
+	 * @return The synchronous thread, or null.
+	 */
+	synchronized Thread thread() {
+		return main;
+	}
+
+	/**
+	 * @return True if the specified {@link Tasklet} is being invoked on the synchronous thread.
+	 */
+	private boolean isActive(Tasklet t) {
+		for (int i = depth - 1; i >= 0; i--) {
+			if (active[i] == t) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove and answer the first synchronous Tasklet that is not already being invoked. Stale entries of
+	 * tasklets that have since been suspended or finished are discarded on the way.
+	 * @return Answer the next synchronous Tasklet or null if there is none that can run now.
 	 */
 	private Tasklet dequeue() {
-		Tasklet next;
 		final Iterator<Tasklet> iter = sync.iterator();
-		next = iter.next();
-		iter.remove();
-		Directive d = directives.remove(next);
-		if (d == null) {
-			d = Directive.DONE;
-		}
-		switch (d) {
-		case SYNC:
-			// expected case
-			break;
-		case WAIT:
-			// re-enqueue a dequeued tasklet.
-			directives.put(next, d);
-			// a dequeued tasklet remains dequeued.
-			next = null;
-			break;
-		default:
-			next = null;
-			break;
+		while (iter.hasNext()) {
+			final Tasklet next = iter.next();
+			if (depth > 0 && isActive(next)) {
+				// it was resumed during its current invocation, so it runs again once that has returned.
+				continue;
+			}
+			iter.remove();
+			final Directive d = directives.remove(next);
+			if (d == Directive.SYNC) {
+				return next;
+			} else if (d == Directive.WAIT) {
+				// a dequeued tasklet remains dequeued.
+				directives.put(next, d);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A request to resume a suspended {@link Tasklet} at a deadline.
+	 */
+	private static final class Timer implements Comparable<Timer> {
+		final long deadline;
+		final long sequence;
+		final long handle;
+		final Directive directive;
+
+		Timer(long deadline, long sequence, long handle, Directive directive) {
+			this.deadline = deadline;
+			this.sequence = sequence;
+			this.handle = handle;
+			this.directive = directive;
+		}
+
+		@Override
+		public int compareTo(Timer o) {
+			final long d = deadline - o.deadline;
+			if (d != 0) {
+				return d < 0 ? -1 : 1;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
 		}
-		return next;
 	}
 
 }
@@ -0,0 +1,358 @@
+package com.wildducktheories.tasklet.impl;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.wildducktheories.tasklet.API;
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerConfinementException;
+import com.wildducktheories.tasklet.SchedulerOption;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Provides an implementation of the {@link Scheduler} interface that is confined to the thread that created it.
+ * <p>
+ * Since only one thread ever touches its state, the scheduler takes no locks and never notifies: its run queues are
+ * plain {@link ArrayDeque} instances and a schedule() call is a map update and a queue insertion. The price is that
+ * it cannot run {@link Directive#ASYNC} phases or accept work from other threads. Every method checks the calling
+ * thread first and throws a {@link SchedulerConfinementException}, an {@link IllegalStateException}, if it is not
+ * the owner. Scheduling a tasklet with {@link Directive#ASYNC}, directly or by returning it from a phase, throws an
+ * {@link UnsupportedOperationException}, which propagates out of {@link #run()} or
+ * {@link #step(int, long, TimeUnit)} rather than completing the tasklet. It suits schedulers whose tasklets are
+ * SYNC-only state machines. {@link Directive#READ} phases are run as {@link Directive#SYNC} phases,
+ * which is safe because nothing else can run at the same time.
+ * <p>
+ * A phase that throws a {@link RuntimeException} completes its tasklet, as with {@link AsynchronousSchedulerImpl},
+ * and the exception is reported on {@link System#err}.
+ * <p>
+ * Since no other thread can resume a suspended {@link Tasklet}, {@link #run()} throws an
+ * {@link IllegalStateException} if it is left with suspended tasklets and nothing that could resume them.
+ * <p>
+ * Created by {@link API#newScheduler(SchedulerOption...)} with {@link SchedulerOption#CONFINED}.
+ * @author jonseymour
+ */
+public class ConfinedSchedulerImpl implements Scheduler {
+
+	private final API api;
+
+	private final Thread owner;
+
+	/**
+	 * The directives of the tasklets that are runnable or waiting.
+	 */
+	private final Map<Tasklet, Directive> directives = new IdentityHashMap<Tasklet, Directive>();
+
+	/**
+	 * The SYNC run queue. A tasklet that is suspended after it is queued stays queued and is skipped when it is
+	 * dequeued, so it may appear more than once.
+	 */
+	private final ArrayDeque<Tasklet> sync = new ArrayDeque<Tasklet>();
+
+	/**
+	 * Commands submitted with {@link #execute(Runnable)}.
+	 */
+	private final ArrayDeque<Runnable> commands = new ArrayDeque<Runnable>();
+
+	/**
+	 * Tasklets that are to be moved to another scheduler once their current phase returns.
+	 */
+	private final Map<Tasklet, Scheduler> migrations = new IdentityHashMap<Tasklet, Scheduler>();
+
+	/**
+	 * Pending delays, earliest first.
+	 */
+	private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+
+	/**
+	 * The pending timer of each delayed tasklet. A timer that is no longer here when it expires has been cancelled.
+	 */
+	private final Map<Tasklet, Timer> delayed = new IdentityHashMap<Tasklet, Timer>();
+
+	/**
+	 * Orders timers with equal deadlines.
+	 */
+	private long timerSequence;
+
+	/**
+	 * @param api The API whose current scheduler is the receiver while the scheduling loop runs.
+	 */
+	public ConfinedSchedulerImpl(API api) {
+		this.api = api;
+		this.owner = Thread.currentThread();
+	}
+
+	/**
+	 * @throws SchedulerConfinementException If the current thread is not the owner.
+	 */
+	private void confine() {
+		if (Thread.currentThread() != owner) {
+			throw new SchedulerConfinementException(owner);
+		}
+	}
+
+	/**
+	 * A migrating tasklet is handed to its target by the thread that answers its WAIT, which is the thread that
+	 * called migrate(), and by then the tasklet has left its scheduler. So migrate() checks the target first.
+	 * @throws SchedulerConfinementException If the target is confined to a thread other than the current one.
+	 */
+	static void confine(Scheduler target) {
+		if (target instanceof ConfinedSchedulerImpl) {
+			((ConfinedSchedulerImpl) target).confine();
+		}
+	}
+
+	/**
+	 * Unlike {@link AsynchronousSchedulerImpl}, the receiver never runs a tasklet from within schedule(); SYNC
+	 * tasklets run only from {@link #run()} and {@link #step(int, long, TimeUnit)}.
+	 */
+	@Override
+	public Scheduler schedule(Tasklet t, Directive directive) {
+		confine();
+		if (!migrations.isEmpty()) {
+			final Scheduler target = migrations.remove(t);
+			if (target != null && directive == Directive.WAIT) {
+				directives.remove(t);
+				target.schedule(t, Directive.SYNC);
+				return this;
+			}
+		}
+		if (!delayed.isEmpty() && directive != Directive.WAIT) {
+			// rescheduling a delayed tasklet cancels its timer.
+			final Timer cancelled = delayed.remove(t);
+			if (cancelled != null) {
+				timers.remove(cancelled);
+			}
+		}
+		switch (directive) {
+		case SYNC:
+		case READ:
+			if (directives.put(t, Directive.SYNC) != Directive.SYNC) {
+				sync.addLast(t);
+			}
+			break;
+		case WAIT:
+			directives.put(t, Directive.WAIT);
+			break;
+		case ASYNC:
+			throw new UnsupportedOperationException("a confined scheduler cannot run ASYNC phases");
+		case DONE:
+		default:
+			directives.remove(t);
+			break;
+		}
+		return this;
+	}
+
+	@Override
+	public Scheduler schedule(Tasklet t, Directive directive, long delay, TimeUnit unit) {
+		if (delay <= 0) {
+			return schedule(t, directive);
+		}
+		if (directive == Directive.ASYNC) {
+			throw new UnsupportedOperationException("a confined scheduler cannot run ASYNC phases");
+		}
+		schedule(t, Directive.WAIT);
+		final Timer timer = new Timer(System.nanoTime() + unit.toNanos(delay), ++timerSequence, t, directive);
+		timers.add(timer);
+		final Timer replaced = delayed.put(t, timer);
+		if (replaced != null) {
+			timers.remove(replaced);
+		}
+		return this;
+	}
+
+	/**
+	 * Suspending a delayed tasklet cancels its timer, so only the returned {@link Rescheduler} resumes it.
+	 */
+	@Override
+	public Rescheduler suspend(Tasklet t) {
+		confine();
+		if (!delayed.isEmpty()) {
+			final Timer cancelled = delayed.remove(t);
+			if (cancelled != null) {
+				timers.remove(cancelled);
+			}
+		}
+		schedule(t, Directive.WAIT);
+		return new ReschedulerImpl(this, t);
+	}
+
+	@Override
+	public Directive migrate(Tasklet t, Scheduler target) {
+		confine();
+		if (target == this) {
+			return Directive.SYNC;
+		}
+		confine(target);
+		migrations.put(t, target);
+		return Directive.WAIT;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		confine();
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		commands.addLast(command);
+	}
+
+	/**
+	 * Runs the scheduler until there are no more {@link Tasklet} instances waiting to be scheduled.
+	 * @throws IllegalStateException If only suspended tasklets remain.
+	 */
+	@Override
+	public void run() {
+		confine();
+		api.with(this, new Tasklet() {
+			public Directive task() {
+				try {
+					while (turn(true) >= 0) {
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return Directive.DONE;
+			}
+		});
+	}
+
+	@Override
+	public int step(final int limit, long timeout, TimeUnit unit) {
+		confine();
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		api.with(this, new Tasklet() {
+			public Directive task() {
+				try {
+					int ran = 0;
+					while (ran < limit && turn(false) > 0) {
+						ran++;
+						if (System.nanoTime() - deadline >= 0) {
+							break;
+						}
+					}
+				} catch (InterruptedException e) {
+					// turn(false) does not wait.
+					Thread.currentThread().interrupt();
+				}
+				return Directive.DONE;
+			}
+		});
+
+		if (directives.isEmpty() && commands.isEmpty() && timers.isEmpty()) {
+			return -1;
+		}
+		int ready = 0;
+		for (Tasklet t : sync) {
+			if (directives.get(t) == Directive.SYNC) {
+				ready++;
+			}
+		}
+		if (!commands.isEmpty() || (!timers.isEmpty() && timers.peek().deadline - System.nanoTime() <= 0)) {
+			ready++;
+		}
+		return ready;
+	}
+
+	@Override
+	public long nextDeadline(TimeUnit unit) {
+		confine();
+		if (timers.isEmpty()) {
+			return -1;
+		}
+		return unit.convert(Math.max(0, timers.peek().deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Take one turn of the scheduling loop: run one command, expire one timer or run one SYNC tasklet.
+	 *
+	 * @param block True if the turn may sleep until the next timer expires.
+	 * @return The number of commands, timers and tasklets run, or -1 if the scheduler has nothing left to do.
+	 * @throws InterruptedException If the thread is interrupted while sleeping.
+	 * @throws IllegalStateException If block is true and only suspended tasklets remain.
+	 */
+	private int turn(boolean block) throws InterruptedException {
+		final Runnable command = commands.pollFirst();
+		if (command != null) {
+			try {
+				command.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace(System.err);
+			}
+			return 1;
+		}
+
+		final long delay = timers.isEmpty() ? 0 : timers.peek().deadline - System.nanoTime();
+		if (!timers.isEmpty() && delay <= 0) {
+			final Timer expired = timers.poll();
+			if (delayed.get(expired.tasklet) == expired) {
+				schedule(expired.tasklet, expired.directive);
+			}
+			return 1;
+		}
+
+		Tasklet next;
+		while ((next = sync.pollFirst()) != null) {
+			final Directive d = directives.remove(next);
+			if (d == Directive.SYNC) {
+				final Directive directive;
+				try {
+					directive = next.task();
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.err);
+					schedule(next, Directive.DONE);
+					return 1;
+				}
+				// outside the try, so that an ASYNC directive fails fast.
+				schedule(next, directive);
+				return 1;
+			} else if (d != null) {
+				// the tasklet was suspended after it was queued.
+				directives.put(next, d);
+			}
+		}
+
+		if (directives.isEmpty() && timers.isEmpty()) {
+			return -1;
+		} else if (!block) {
+			return 0;
+		} else if (timers.isEmpty()) {
+			throw new IllegalStateException("illegal state: " + directives.size()
+				+ " suspended tasklets remain but only the owner thread can resume them");
+		}
+		TimeUnit.NANOSECONDS.sleep(delay);
+		return 0;
+	}
+
+	/**
+	 * A request to reschedule a suspended {@link Tasklet} at a deadline.
+	 */
+	private static final class Timer implements Comparable<Timer> {
+		final long deadline;
+		final long sequence;
+		final Tasklet tasklet;
+		final Directive directive;
+
+		Timer(long deadline, long sequence, Tasklet tasklet, Directive directive) {
+			this.deadline = deadline;
+			this.sequence = sequence;
+			this.tasklet = tasklet;
+			this.directive = directive;
+		}
+
+		@Override
+		public int compareTo(Timer o) {
+			final long d = deadline - o.deadline;
+			if (d != 0) {
+				return d < 0 ? -1 : 1;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+	}
+
+}
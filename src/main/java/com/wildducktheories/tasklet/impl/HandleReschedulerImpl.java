@@ -0,0 +1,33 @@
+package com.wildducktheories.tasklet.impl;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+
+/**
+ * A {@link Rescheduler} that identifies its suspended tasklet by a {@link HandleTable} handle.
+ * <p>
+ * A handle may be used to resume its tasklet only once; later attempts fail with an {@link IllegalStateException}.
+ */
+final class HandleReschedulerImpl implements Rescheduler {
+	private final AsynchronousSchedulerImpl scheduler;
+	private final long handle;
+
+	HandleReschedulerImpl(AsynchronousSchedulerImpl scheduler, long handle) {
+		this.scheduler = scheduler;
+		this.handle = handle;
+	}
+
+	@Override
+	public Runnable resumeLater(final Directive directive) {
+		return new Runnable() {
+			public void run() {
+				resume(directive);
+			}
+		};
+	}
+
+	@Override
+	public void resume(Directive directive) {
+		scheduler.resume(handle, directive);
+	}
+}
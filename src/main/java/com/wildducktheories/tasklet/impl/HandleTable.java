@@ -0,0 +1,141 @@
+package com.wildducktheories.tasklet.impl;
+
+import java.util.Arrays;
+
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * A table of suspended {@link Tasklet} instances indexed by handle.
+ * <p>
+ * A handle packs a slot index into its low 32 bits and the generation of that slot into its high 32 bits. Each
+ * time a slot is released its generation is incremented, so a handle that has already been used to remove its
+ * {@link Tasklet} no longer matches and is detected as stale, even if the slot has since been reused.
+ * <p>
+ * The table is backed by parallel arrays and a free list, so a slot costs a reference and four ints regardless of
+ * how many tasklets are suspended, and a suspension allocates nothing once the table has grown to hold it. A
+ * suspension may also be cancelled by {@link Tasklet}, which needs no index: the slots are scanned, but only if a
+ * table of counters keyed by identity hash code says that the {@link Tasklet} may be present, so asking about a
+ * {@link Tasklet} that is not suspended, which is what nearly every call does, costs no scan. A {@link Tasklet} is in
+ * the table at most once.
+ * <p>
+ * This class is not thread-safe; callers must provide their own synchronization.
+ */
+final class HandleTable {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Tasklet[] tasklets = new Tasklet[INITIAL_CAPACITY];
+
+	private int[] generations = new int[INITIAL_CAPACITY];
+
+	/**
+	 * A stack of released slot indexes.
+	 */
+	private int[] free = new int[INITIAL_CAPACITY];
+
+	private int freeCount;
+
+	/**
+	 * The number of slots that have ever been used.
+	 */
+	private int limit;
+
+	private int size;
+
+	/**
+	 * The number of tasklets in the table whose identity hash codes select each counter; twice as many counters as
+	 * slots.
+	 */
+	private int[] counts = new int[INITIAL_CAPACITY * 2];
+
+	/**
+	 * @return A new handle for the specified {@link Tasklet}, which must not already be in the table.
+	 */
+	long add(Tasklet tasklet) {
+		final int index;
+		if (freeCount > 0) {
+			index = free[--freeCount];
+		} else {
+			if (limit == tasklets.length) {
+				grow();
+			}
+			index = limit++;
+		}
+		tasklets[index] = tasklet;
+		counts[bucket(tasklet)]++;
+		size++;
+		return ((long) generations[index] << 32) | index;
+	}
+
+	/**
+	 * Remove the {@link Tasklet} identified by the specified handle.
+	 * @return The {@link Tasklet} or null if the handle is stale.
+	 */
+	Tasklet remove(long handle) {
+		final int index = (int) handle;
+		if (!contains(handle)) {
+			return null;
+		}
+		final Tasklet tasklet = tasklets[index];
+		release(index);
+		return tasklet;
+	}
+
+	/**
+	 * Remove the specified {@link Tasklet}, making its handle stale.
+	 * @return True if the {@link Tasklet} was in the table.
+	 */
+	boolean remove(Tasklet tasklet) {
+		if (counts[bucket(tasklet)] == 0) {
+			return false;
+		}
+		for (int index = 0; index < limit; index++) {
+			if (tasklets[index] == tasklet) {
+				release(index);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void release(int index) {
+		counts[bucket(tasklets[index])]--;
+		tasklets[index] = null;
+		generations[index]++;
+		free[freeCount++] = index;
+		size--;
+	}
+
+	/**
+	 * @return True if the specified handle still identifies a {@link Tasklet} in the table.
+	 */
+	boolean contains(long handle) {
+		final int index = (int) handle;
+		return index >= 0 && index < limit && generations[index] == (int) (handle >>> 32) && tasklets[index] != null;
+	}
+
+	/**
+	 * @return The number of {@link Tasklet} instances in the table.
+	 */
+	int size() {
+		return size;
+	}
+
+	private int bucket(Tasklet tasklet) {
+		final int h = System.identityHashCode(tasklet);
+		return (h ^ (h >>> 16)) & (counts.length - 1);
+	}
+
+	private void grow() {
+		final int capacity = tasklets.length * 2;
+		tasklets = Arrays.copyOf(tasklets, capacity);
+		generations = Arrays.copyOf(generations, capacity);
+		free = Arrays.copyOf(free, capacity);
+		counts = new int[capacity * 2];
+		for (int index = 0; index < limit; index++) {
+			if (tasklets[index] != null) {
+				counts[bucket(tasklets[index])]++;
+			}
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package com.wildducktheories.tasklet.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Detects {@link Tasklet} instances that block the synchronous thread of a {@link Scheduler}.
+ * <p>
+ * A synchronous phase that blocks - on I/O, a lock or a long computation - stalls every other SYNC tasklet
+ * of its scheduler. Such a phase should have returned {@link Directive#ASYNC} instead, but nothing in the
+ * tasklet's code says so. A watchdog samples each scheduler it watches from a daemon thread of its own and,
+ * when one invocation of task() on the synchronous thread has lasted longer than a threshold, captures the
+ * stack of the synchronous thread and reports it, together with the class of the offending tasklet, to a
+ * {@link Listener}. Each invocation is reported at most once.
+ * <p>
+ * The watchdog also keeps per-class {@link Statistics} of how long the invocations it observed ran for. These
+ * are derived from samples: an invocation that starts and finishes between two samples is not seen at all, and
+ * the duration of one that is seen is measured from the sample that first saw it, so it is underestimated by
+ * up to one sampling period. The period is a quarter of the threshold.
+ * <p>
+ * Time the synchronous thread spends in the scheduler itself - running commands, starting readers, handing
+ * phases to the executor - is not charged to any tasklet.
+ * <p>
+ * Only schedulers created by {@link com.wildducktheories.tasklet.API#newScheduler(
+ * com.wildducktheories.tasklet.SchedulerOption...)} without {@link com.wildducktheories.tasklet.SchedulerOption#CONFINED}
+ * can be watched, since the watchdog relies on them to publish their dispatches. The cost to a watched scheduler is one
+ * volatile write per dispatch from its scheduling loop; a dispatch nested in another, when a SYNC phase schedules a
+ * tasklet that then runs at once, costs nothing and is charged to the outer one. A scheduler that is not watched does
+ * not pay even that.
+ */
+public class Watchdog {
+
+	/**
+	 * Receives the reports of a {@link Watchdog}. Called on the watchdog's thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param scheduler The scheduler whose synchronous thread is blocked.
+		 * @param thread The synchronous thread.
+		 * @param type The class of the tasklet whose invocation has exceeded the threshold.
+		 * @param elapsed The observed duration of the invocation so far, in nanoseconds.
+		 * @param stack The stack of the synchronous thread when the threshold was exceeded.
+		 */
+		void blocked(Scheduler scheduler, Thread thread, Class<?> type, long elapsed, StackTraceElement[] stack);
+	}
+
+	/**
+	 * Sampled statistics of the task() invocations of one {@link Tasklet} class on a synchronous thread.
+	 */
+	public static final class Statistics {
+
+		private long observed;
+		private long blocked;
+		private long total;
+		private long max;
+
+		private Statistics() {
+		}
+
+		private Statistics(Statistics s) {
+			observed = s.observed;
+			blocked = s.blocked;
+			total = s.total;
+			max = s.max;
+		}
+
+		/**
+		 * @return The number of invocations seen by at least one sample.
+		 */
+		public long getObserved() {
+			return observed;
+		}
+
+		/**
+		 * @return The number of invocations that exceeded the threshold.
+		 */
+		public long getBlocked() {
+			return blocked;
+		}
+
+		/**
+		 * @return The sum of the observed durations, in nanoseconds.
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * @return The longest observed duration, in nanoseconds.
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "{\"observed\":" + observed + ",\"blocked\":" + blocked
+				+ ",\"totalNanos\":" + total + ",\"maxNanos\":" + max + "}";
+		}
+	}
+
+	/**
+	 * The sampling state of one watched scheduler.
+	 */
+	private static final class Watched {
+		final AsynchronousSchedulerImpl scheduler;
+
+		/**
+		 * The publication count at the last sample, and the time and occupant it was first seen with.
+		 */
+		long published = -1;
+		long since;
+		Tasklet occupant;
+
+		/**
+		 * The part of the occupant's observed duration already added to its statistics.
+		 */
+		long accounted;
+		boolean reported;
+
+		Watched(AsynchronousSchedulerImpl scheduler) {
+			this.scheduler = scheduler;
+		}
+	}
+
+	/**
+	 * A {@link Listener} that prints each report to {@link System#err}.
+	 */
+	public static final Listener STDERR = new Listener() {
+		@Override
+		public void blocked(Scheduler scheduler, Thread thread, Class<?> type, long elapsed, StackTraceElement[] stack) {
+			final StringBuilder b = new StringBuilder();
+			b.append("tasklet ").append(type.getName()).append(" has blocked synchronous thread \"")
+				.append(thread.getName()).append("\" for ").append(TimeUnit.NANOSECONDS.toMillis(elapsed)).append("ms");
+			for (StackTraceElement e : stack) {
+				b.append("\n\tat ").append(e);
+			}
+			System.err.println(b);
+		}
+	};
+
+	private final long threshold;
+
+	private final Listener listener;
+
+	private final List<Watched> watched = new ArrayList<Watched>();
+
+	private final Map<Class<?>, Statistics> statistics = new HashMap<Class<?>, Statistics>();
+
+	private Thread thread;
+
+	/**
+	 * Create a watchdog that reports to {@link #STDERR}.
+	 * @param threshold The duration of an invocation that is reported.
+	 * @param unit The unit of the threshold.
+	 */
+	public Watchdog(long threshold, TimeUnit unit) {
+		this(threshold, unit, STDERR);
+	}
+
+	/**
+	 * @param threshold The duration of an invocation that is reported.
+	 * @param unit The unit of the threshold.
+	 * @param listener The listener that receives the reports.
+	 */
+	public Watchdog(long threshold, TimeUnit unit, Listener listener) {
+		if (threshold <= 0) {
+			throw new IllegalArgumentException("threshold must be positive");
+		}
+		this.threshold = unit.toNanos(threshold);
+		this.listener = listener;
+	}
+
+	/**
+	 * Start watching the synchronous thread of the specified scheduler. The watchdog's thread is started by
+	 * the first call.
+	 * @param scheduler The scheduler.
+	 * @return The receiver.
+	 * @throws IllegalArgumentException If the scheduler cannot be watched.
+	 */
+	public synchronized Watchdog watch(Scheduler scheduler) {
+		if (!(scheduler instanceof AsynchronousSchedulerImpl)) {
+			throw new IllegalArgumentException("only asynchronous schedulers can be watched: " + scheduler);
+		}
+		final AsynchronousSchedulerImpl watchable = (AsynchronousSchedulerImpl)scheduler;
+		watchable.monitor();
+		watched.add(new Watched(watchable));
+		if (thread == null) {
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					sample();
+				}
+			}, "tasklet-watchdog");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Stop the watchdog's thread. The watched schedulers continue to publish their dispatches.
+	 */
+	public void close() {
+		final Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * @return A copy of the statistics gathered so far, by tasklet class.
+	 */
+	public synchronized Map<Class<?>, Statistics> getStatistics() {
+		final Map<Class<?>, Statistics> copy = new HashMap<Class<?>, Statistics>();
+		for (Map.Entry<Class<?>, Statistics> e : statistics.entrySet()) {
+			copy.put(e.getKey(), new Statistics(e.getValue()));
+		}
+		return copy;
+	}
+
+	/**
+	 * The body of the watchdog's thread.
+	 */
+	private void sample() {
+		final long period = Math.max(threshold / 4, TimeUnit.MILLISECONDS.toNanos(1));
+		try {
+			while (true) {
+				final List<Watched> snapshot;
+				synchronized (this) {
+					if (thread != Thread.currentThread()) {
+						return;
+					}
+					snapshot = new ArrayList<Watched>(watched);
+				}
+				for (Watched w : snapshot) {
+					sample(w, System.nanoTime());
+				}
+				TimeUnit.NANOSECONDS.sleep(period);
+			}
+		} catch (InterruptedException e) {
+			return;
+		}
+	}
+
+	/**
+	 * Take one sample of the specified scheduler.
+	 */
+	private void sample(Watched w, long now) {
+		final long published = w.scheduler.published();
+		final Tasklet occupant = w.scheduler.sampled();
+		if (published != w.scheduler.published()) {
+			// the synchronous thread moved on while we looked; try again next period.
+			return;
+		}
+
+		if (published != w.published) {
+			w.published = published;
+			w.since = now;
+			w.occupant = occupant;
+			w.accounted = 0;
+			w.reported = false;
+			if (occupant != null) {
+				synchronized (this) {
+					statistics(occupant.getClass()).observed++;
+				}
+			}
+			return;
+		}
+
+		if (occupant == null) {
+			// the invocation has returned and the synchronous thread is back in the scheduling loop.
+			w.occupant = null;
+			return;
+		}
+
+		final long elapsed = now - w.since;
+		final Class<?> type = occupant.getClass();
+		boolean report = false;
+		synchronized (this) {
+			final Statistics s = statistics(type);
+			s.total += elapsed - w.accounted;
+			w.accounted = elapsed;
+			if (elapsed > s.max) {
+				s.max = elapsed;
+			}
+			if (elapsed >= threshold && !w.reported) {
+				w.reported = true;
+				s.blocked++;
+				report = true;
+			}
+		}
+		if (report) {
+			final Thread thread = w.scheduler.thread();
+			if (thread != null) {
+				final StackTraceElement[] stack = thread.getStackTrace();
+				if (w.scheduler.published() == published && w.scheduler.sampled() != null) {
+					// the stack belongs to the offending invocation.
+					listener.blocked(w.scheduler, thread, type, elapsed, stack);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The statistics of the specified class, created if necessary. Called with the monitor held.
+	 */
+	private Statistics statistics(Class<?> type) {
+		Statistics s = statistics.get(type);
+		if (s == null) {
+			s = new Statistics();
+			statistics.put(type, s);
+		}
+		return s;
+	}
+}
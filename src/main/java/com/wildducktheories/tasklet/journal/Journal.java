@@ -0,0 +1,608 @@
+package com.wildducktheories.tasklet.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Records the suspension of serializable {@link Tasklet} instances in an append-only, memory-mapped file so that
+ * they can be reloaded into a {@link Scheduler} after a restart.
+ * <p>
+ * A tasklet is journaled by suspending it with {@link #suspend(Scheduler, Tasklet)} instead of
+ * {@link Scheduler#suspend(Tasklet)}. Its serialized state is appended to the journal and removed again when the
+ * returned {@link JournalRescheduler} is used to resume it. On startup, {@link #recover(Scheduler, Recovery)}
+ * reloads every tasklet that was still suspended, suspends it with the specified scheduler and hands it, together
+ * with a fresh {@link Rescheduler}, to the application.
+ * <p>
+ * Each record is laid out as:
+ * <pre>
+ * int  length   number of bytes from op to the end of the record
+ * int  crc      CRC-32 of the bytes from op to the end of the record
+ * byte op       PUT or REMOVE
+ * long id       journal identifier of the tasklet
+ * byte[] state  serialized tasklet (PUT only)
+ * </pre>
+ * The length is written last, so a record torn by a process crash reads as the end of the journal. Records are
+ * written to the page cache by the operating system even if the process dies; call {@link #force()} where
+ * durability against an operating system crash is also required.
+ * <p>
+ * When the file is full, the mapping is doubled in size. If at least half of it is occupied by superseded records, a
+ * daemon thread also compacts it by copying the live records into a new file that atomically replaces the old one,
+ * so that the thread that appends, typically the synchronous thread of a scheduler, never waits for the copy, the
+ * force or the rename. Changes journaled while the copy is made are carried over to the new file before it replaces
+ * the old one. {@link #compact()} may also be called at any time, on a thread that can afford to wait for it.
+ */
+public class Journal implements Closeable {
+
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+
+	/**
+	 * The size of the length and crc fields.
+	 */
+	private static final int HEADER = 8;
+
+	/**
+	 * The size of the op and id fields.
+	 */
+	private static final int BODY_HEADER = 9;
+
+	private static final int DEFAULT_CAPACITY = 1 << 20;
+
+	private final File file;
+
+	private final int initialCapacity;
+
+	private RandomAccessFile raf;
+
+	private MappedByteBuffer buffer;
+
+	/**
+	 * The offset at which the next record will be written.
+	 */
+	private int position;
+
+	/**
+	 * The offset of the latest PUT record of each suspended tasklet.
+	 */
+	private final Map<Long, Integer> offsets = new HashMap<Long, Integer>();
+
+	/**
+	 * The total size of the records referenced by offsets.
+	 */
+	private long liveBytes;
+
+	private long nextId;
+
+	/**
+	 * True while a compaction is in progress, so that at most one runs at a time.
+	 */
+	private boolean compacting;
+
+	private boolean closed;
+
+	/**
+	 * Open or create a journal with the default initial capacity.
+	 */
+	public Journal(File file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Open or create a journal.
+	 * @param file The journal file.
+	 * @param initialCapacity The initial size of the mapping, in bytes.
+	 */
+	public Journal(File file, int initialCapacity) throws IOException {
+		this.file = file;
+		this.initialCapacity = Math.max(initialCapacity, 64);
+		this.raf = new RandomAccessFile(file, "rw");
+		this.buffer = map(raf, (int) Math.max(this.initialCapacity, Math.min(raf.length(), Integer.MAX_VALUE)));
+		scan();
+	}
+
+	/**
+	 * Journal the specified tasklet, then suspend it with the specified scheduler.
+	 * @param scheduler The scheduler the tasklet is suspended with.
+	 * @param tasklet A {@link Tasklet} that also implements {@link Serializable}.
+	 * @return A {@link JournalRescheduler} that MUST be used to resume the tasklet.
+	 */
+	public JournalRescheduler suspend(Scheduler scheduler, Tasklet tasklet) {
+		final long id;
+		synchronized (this) {
+			id = nextId++;
+		}
+		put(id, tasklet);
+		return new JournalRescheduler(this, scheduler.suspend(tasklet), tasklet, id);
+	}
+
+	/**
+	 * Reload every tasklet that is still suspended according to the journal. Each tasklet is suspended with the
+	 * specified scheduler and passed to the specified {@link Recovery}. This method should be called once, before
+	 * any other tasklet is journaled.
+	 * @return The number of tasklets recovered.
+	 */
+	public int recover(Scheduler scheduler, Recovery recovery) {
+		final List<Long> ids = new ArrayList<Long>();
+		final List<Tasklet> tasklets = new ArrayList<Tasklet>();
+		synchronized (this) {
+			for (Map.Entry<Long, Integer> e : offsets.entrySet()) {
+				final int offset = e.getValue();
+				final int length = buffer.getInt(offset);
+				final byte[] state = new byte[length - BODY_HEADER];
+				final ByteBuffer src = buffer.duplicate();
+				src.position(offset + HEADER + BODY_HEADER);
+				src.get(state);
+				ids.add(e.getKey());
+				tasklets.add(deserialize(e.getKey(), state));
+			}
+		}
+		for (int i = 0; i < tasklets.size(); i++) {
+			final Tasklet tasklet = tasklets.get(i);
+			recovery.recovered(tasklet, new JournalRescheduler(this, scheduler.suspend(tasklet), tasklet, ids.get(i)));
+		}
+		return tasklets.size();
+	}
+
+	/**
+	 * @return The number of tasklets currently journaled as suspended.
+	 */
+	public synchronized int size() {
+		return offsets.size();
+	}
+
+	/**
+	 * Rewrite the journal so that it contains only the latest record of each suspended tasklet. The calling thread
+	 * waits for any compaction already in progress and then for this one, including the force and rename of the new
+	 * file, so it should not be the synchronous thread of a scheduler.
+	 */
+	public void compact() {
+		synchronized (this) {
+			boolean interrupted = false;
+			while (compacting) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (closed) {
+				return;
+			}
+			compacting = true;
+		}
+		rewrite();
+	}
+
+	/**
+	 * Compact the journal on a daemon thread. The caller holds the monitor and has already set compacting.
+	 */
+	private void compactLater() {
+		final Thread thread = new Thread("tasklet-journal-compactor[" + file.getName() + "]") {
+			@Override
+			public void run() {
+				try {
+					rewrite();
+				} catch (JournalException e) {
+					// the journal keeps its current file, which has already been grown.
+					e.printStackTrace(System.err);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Copy the live records into a new file that then replaces the journal. Records are never modified once
+	 * written, so those live at a snapshot are copied through the channel without holding the monitor; only the
+	 * changes since the snapshot, the force and the rename happen under it. The caller has set compacting.
+	 */
+	private void rewrite() {
+		final File tmp = new File(file.getPath() + ".compact");
+		RandomAccessFile craf = null;
+		try {
+			final FileChannel source;
+			final int end;
+			final long[] ids;
+			final int[] from;
+			final int[] sizes;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				source = raf.getChannel();
+				end = position;
+				ids = new long[offsets.size()];
+				from = new int[ids.length];
+				sizes = new int[ids.length];
+				int i = 0;
+				for (Map.Entry<Long, Integer> e : offsets.entrySet()) {
+					ids[i] = e.getKey();
+					from[i] = e.getValue();
+					sizes[i] = HEADER + buffer.getInt(from[i]);
+					i++;
+				}
+			}
+
+			craf = new RandomAccessFile(tmp, "rw");
+			craf.setLength(0);
+			final FileChannel target = craf.getChannel();
+			final Map<Long, Integer> moved = new HashMap<Long, Integer>(ids.length * 2);
+			int p = 0;
+			for (int i = 0; i < ids.length; i++) {
+				final ByteBuffer record = ByteBuffer.allocate(sizes[i]);
+				while (record.hasRemaining()) {
+					if (source.read(record, from[i] + record.position()) < 0) {
+						throw new EOFException("record at " + from[i] + " of " + file + " is truncated");
+					}
+				}
+				record.flip();
+				write(target, record, p);
+				moved.put(ids[i], p);
+				p += sizes[i];
+			}
+			target.force(false);
+
+			synchronized (this) {
+				// replay what was appended since the snapshot: first drop the moved tasklets that have been resumed
+				// since, then add the latest record of each tasklet journaled since.
+				final Map<Long, Integer> relocated = new HashMap<Long, Integer>(offsets.size() * 2);
+				for (Map.Entry<Long, Integer> e : moved.entrySet()) {
+					final Integer offset = offsets.get(e.getKey());
+					if (offset == null) {
+						final ByteBuffer record = ByteBuffer.allocate(HEADER + BODY_HEADER);
+						encode(record, 0, REMOVE, e.getKey(), new byte[0]);
+						record.clear();
+						write(target, record, p);
+						p += record.capacity();
+					} else if (offset < end) {
+						relocated.put(e.getKey(), e.getValue());
+					}
+				}
+				for (Map.Entry<Long, Integer> e : offsets.entrySet()) {
+					final int offset = e.getValue();
+					if (offset >= end) {
+						final ByteBuffer record = buffer.duplicate();
+						record.position(offset);
+						record.limit(offset + HEADER + buffer.getInt(offset));
+						write(target, record, p);
+						relocated.put(e.getKey(), p);
+						p += record.limit() - offset;
+					}
+				}
+				int capacity = initialCapacity;
+				while (capacity < (long) p * 2 + HEADER) {
+					capacity *= 2;
+				}
+				craf.setLength(capacity);
+				target.force(true);
+
+				// release the old file before it is replaced, which some platforms require.
+				final int previous = buffer.capacity();
+				raf.close();
+				release(buffer);
+				buffer = null;
+				try {
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException e) {
+					raf = new RandomAccessFile(file, "rw");
+					buffer = map(raf, previous);
+					throw e;
+				}
+				raf = craf;
+				craf = null;
+				buffer = map(raf, capacity);
+				position = p;
+				offsets.clear();
+				offsets.putAll(relocated);
+			}
+		} catch (IOException e) {
+			throw new JournalException("compaction of " + file + " failed", e);
+		} finally {
+			if (craf != null) {
+				try {
+					craf.close();
+				} catch (IOException e) {
+					// the compaction has already failed.
+				}
+				tmp.delete();
+			}
+			synchronized (this) {
+				compacting = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Force all records to the storage device.
+	 */
+	public synchronized void force() {
+		buffer.force();
+	}
+
+	/**
+	 * Waits for a compaction in progress to finish, then forces and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		boolean interrupted = false;
+		while (compacting) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		buffer.force();
+		raf.close();
+	}
+
+	/**
+	 * Append a PUT record for the specified tasklet.
+	 */
+	void put(long id, Tasklet tasklet) {
+		final byte[] state = serialize(tasklet);
+		synchronized (this) {
+			record(id, state);
+		}
+	}
+
+	/**
+	 * Append a PUT record for the specified tasklet if it is still journaled. The check is made under the monitor
+	 * that {@link #remove(long)} holds, so a tasklet that has been resumed is never written back.
+	 * @return False if the tasklet has been removed.
+	 */
+	boolean replace(long id, Tasklet tasklet) {
+		final byte[] state = serialize(tasklet);
+		synchronized (this) {
+			if (!offsets.containsKey(id)) {
+				return false;
+			}
+			record(id, state);
+			return true;
+		}
+	}
+
+	/**
+	 * Append a PUT record and index it. Called with the monitor held.
+	 */
+	private void record(long id, byte[] state) {
+		final int offset = append(PUT, id, state);
+		final Integer previous = offsets.put(id, offset);
+		if (previous != null) {
+			liveBytes -= HEADER + buffer.getInt(previous);
+		}
+		liveBytes += HEADER + BODY_HEADER + state.length;
+	}
+
+	/**
+	 * Append a REMOVE record for the specified tasklet, if it is still journaled.
+	 */
+	synchronized void remove(long id) {
+		final Integer previous = offsets.remove(id);
+		if (previous != null) {
+			liveBytes -= HEADER + buffer.getInt(previous);
+			append(REMOVE, id, new byte[0]);
+		}
+	}
+
+	/**
+	 * @return The offset of the appended record.
+	 */
+	private int append(byte op, long id, byte[] state) {
+		final int length = BODY_HEADER + state.length;
+		ensure(HEADER + length);
+		final int offset = position;
+		encode(buffer, offset, op, id, state);
+		position = offset + HEADER + length;
+		return offset;
+	}
+
+	/**
+	 * Write a record at the specified offset of the specified buffer, its length last.
+	 */
+	private static void encode(ByteBuffer dst, int offset, byte op, long id, byte[] state) {
+		final CRC32 crc = new CRC32();
+		crc.update(op);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			crc.update((int) (id >>> shift));
+		}
+		crc.update(state);
+		dst.position(offset + 4);
+		dst.putInt((int) crc.getValue());
+		dst.put(op);
+		dst.putLong(id);
+		dst.put(state);
+		dst.putInt(offset, BODY_HEADER + state.length);
+	}
+
+	/**
+	 * Make room for a record of the specified size, leaving space for the zero length that marks the end of the
+	 * journal.
+	 */
+	private void ensure(int size) {
+		if (position + size + 4 <= buffer.capacity()) {
+			return;
+		}
+		if (!compacting && position - liveBytes >= position / 2) {
+			compacting = true;
+			compactLater();
+		}
+		int capacity = buffer.capacity();
+		while (position + size + 4 > capacity) {
+			if (capacity > Integer.MAX_VALUE / 2) {
+				throw new JournalException("journal " + file + " is full", null);
+			}
+			capacity *= 2;
+		}
+		if (capacity != buffer.capacity()) {
+			try {
+				final MappedByteBuffer previous = buffer;
+				buffer = map(raf, capacity);
+				release(previous);
+			} catch (IOException e) {
+				throw new JournalException("could not grow " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the index from the records in the file. A torn or corrupt record ends the journal and everything
+	 * after it is cleared so that later appends cannot be confused with stale records.
+	 */
+	private void scan() {
+		int p = 0;
+		final int capacity = buffer.capacity();
+		while (p + HEADER <= capacity) {
+			final int length = buffer.getInt(p);
+			if (length == 0) {
+				break;
+			}
+			if (length < BODY_HEADER || length > capacity - p - HEADER || !valid(p, length)) {
+				for (int i = p; i < capacity; i++) {
+					buffer.put(i, (byte) 0);
+				}
+				break;
+			}
+			final byte op = buffer.get(p + HEADER);
+			final long id = buffer.getLong(p + HEADER + 1);
+			final Integer previous = op == PUT ? offsets.put(id, p) : offsets.remove(id);
+			if (previous != null) {
+				liveBytes -= HEADER + buffer.getInt(previous);
+			}
+			if (op == PUT) {
+				liveBytes += HEADER + length;
+			}
+			nextId = Math.max(nextId, id + 1);
+			p += HEADER + length;
+		}
+		position = p;
+	}
+
+	private boolean valid(int offset, int length) {
+		final byte[] body = new byte[length];
+		final ByteBuffer src = buffer.duplicate();
+		src.position(offset + HEADER);
+		src.get(body);
+		final CRC32 crc = new CRC32();
+		crc.update(body);
+		return (int) crc.getValue() == buffer.getInt(offset + 4);
+	}
+
+	private static MappedByteBuffer map(RandomAccessFile raf, int capacity)
+		throws IOException
+	{
+		final FileChannel channel = raf.getChannel();
+		return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer src, int offset)
+		throws IOException
+	{
+		final int start = src.position();
+		while (src.hasRemaining()) {
+			channel.write(src, offset + src.position() - start);
+		}
+	}
+
+	/**
+	 * Release the specified mapping now rather than when it is garbage collected. Every access to the mappings of a
+	 * journal is made under its monitor, by which time the buffer has been replaced, so none can follow the release.
+	 * There is no public API for this, so it is best effort: on a runtime that allows neither
+	 * {@code Unsafe.invokeCleaner} nor the buffer's cleaner, the mapping is left to the garbage collector.
+	 */
+	/**
+	 * Release a mapping that the receiver no longer uses. If it cannot be released now, the file stays mapped until
+	 * the buffer is collected, which delays nothing but the reclamation of the address space.
+	 */
+	void release(MappedByteBuffer buffer) {
+		unmap(buffer);
+	}
+
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+				return;
+			} catch (NoSuchMethodException e) {
+				// before Java 9, the cleaner is reached through the buffer.
+			}
+			final Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			final Object c = cleaner.invoke(buffer);
+			if (c != null) {
+				c.getClass().getMethod("clean").invoke(c);
+			}
+		} catch (Exception e) {
+			// the mapping is released when the buffer is collected.
+		} catch (LinkageError e) {
+			// likewise, if this runtime has no such classes.
+		}
+	}
+
+	private static byte[] serialize(Tasklet tasklet) {
+		if (!(tasklet instanceof Serializable)) {
+			throw new IllegalArgumentException("tasklet must be serializable: " + tasklet.getClass().getName());
+		}
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			final ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(tasklet);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new JournalException("could not serialize " + tasklet.getClass().getName(), e);
+		}
+	}
+
+	private Tasklet deserialize(long id, byte[] state) {
+		try {
+			final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state));
+			try {
+				return (Tasklet) in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new JournalException("could not reload tasklet " + id + " from " + file, e);
+		} catch (ClassNotFoundException e) {
+			throw new JournalException("could not reload tasklet " + id + " from " + file, e);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.wildducktheories.tasklet.journal;
+
+/**
+ * Thrown when a {@link Journal} cannot record a state change of a suspended tasklet.
+ */
+public class JournalException extends RuntimeException {
+
+	private static final long serialVersionUID = 3316522048102237517L;
+
+	public JournalException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,51 @@
+package com.wildducktheories.tasklet.journal;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * A {@link Rescheduler} for a {@link Tasklet} whose suspension is recorded in a {@link Journal}.
+ * <p>
+ * Resuming the tasklet removes it from the journal before it is rescheduled.
+ */
+public final class JournalRescheduler implements Rescheduler {
+
+	private final Journal journal;
+	private final Rescheduler delegate;
+	private final Tasklet tasklet;
+	private final long id;
+
+	JournalRescheduler(Journal journal, Rescheduler delegate, Tasklet tasklet, long id) {
+		this.journal = journal;
+		this.delegate = delegate;
+		this.tasklet = tasklet;
+		this.id = id;
+	}
+
+	/**
+	 * Record the current state of the suspended tasklet, replacing the state recorded when it was suspended or
+	 * last checkpointed. Tasklets that change state while they are suspended should call this method after
+	 * each change that must survive a restart.
+	 * @return False if the tasklet has already been resumed, in which case nothing is recorded, so that a restart
+	 * does not recover it.
+	 */
+	public boolean checkpoint() {
+		return journal.replace(id, tasklet);
+	}
+
+	@Override
+	public void resume(Directive directive) {
+		journal.remove(id);
+		delegate.resume(directive);
+	}
+
+	@Override
+	public Runnable resumeLater(final Directive directive) {
+		return new Runnable() {
+			public void run() {
+				resume(directive);
+			}
+		};
+	}
+}
@@ -0,0 +1,19 @@
+package com.wildducktheories.tasklet.journal;
+
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Receives the {@link Tasklet} instances reloaded by {@link Journal#recover(com.wildducktheories.tasklet.Scheduler, Recovery)}.
+ */
+public interface Recovery {
+
+	/**
+	 * Called once for each reloaded {@link Tasklet}. The {@link Tasklet} has already been suspended with the
+	 * recovering scheduler; the implementation must arrange for the specified {@link Rescheduler} to be used to
+	 * resume it, typically by re-registering it with whatever component would have resumed the original instance.
+	 * @param tasklet The reloaded tasklet.
+	 * @param rescheduler The {@link Rescheduler} that resumes the reloaded tasklet.
+	 */
+	void recovered(Tasklet tasklet, JournalRescheduler rescheduler);
+}
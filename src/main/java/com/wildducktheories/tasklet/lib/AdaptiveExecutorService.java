@@ -0,0 +1,258 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+
+/**
+ * An executor for the {@link Directive#ASYNC} phases of a {@link Scheduler} that sizes itself from the phases it runs.
+ * <p>
+ * By Little's law, the number of phases in progress is their arrival rate times their mean duration. The executor
+ * measures both over each interval, smooths them, and sets its worker count to the resulting concurrency plus
+ * some headroom, within fixed limits. When a downstream service slows down, its phases take longer, and the worker
+ * count rises at the end of the interval in which that is observed; when it recovers, surplus workers retire as
+ * they become idle. The queue is unbounded, so the worker count is the core pool size. If phases are still queued
+ * when an interval ends, at least one worker is added, so an estimate that is too low cannot stall the queue.
+ * <p>
+ * Intervals are ended by a shared timer thread, so the executor adjusts itself even when no phase arrives or
+ * completes. Each interval is charged only with the busy time that falls inside it, including that of phases still
+ * running when it ends, and the mean duration is that busy time per phase completed in the interval, or the whole
+ * busy time if none completed. A phase longer than an interval is therefore not counted in full in every interval
+ * it spans, while phases that hang still raise the estimate at the end of every interval, rather than going
+ * unmeasured until they complete.
+ * <p>
+ * Give each {@link Scheduler} its own instance to size its ASYNC phases independently, for example
+ * <code>new AsynchronousSchedulerImpl(api, new AdaptiveExecutorService(2, 256))</code>.
+ */
+public class AdaptiveExecutorService extends ThreadPoolExecutor {
+
+	/**
+	 * The factor applied to the estimated concurrency.
+	 */
+	private static final double HEADROOM = 1.25;
+
+	/**
+	 * The weight of the latest interval in the smoothed estimates.
+	 */
+	private static final double ALPHA = 0.5;
+
+	/**
+	 * Ends the intervals of every instance.
+	 */
+	private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "tasklet-adaptive-ticker");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final int min;
+
+	private final int max;
+
+	private final long interval;
+
+	private final Clock clock;
+
+	/**
+	 * Ends each interval, or null if the interval is ended only by arrivals and completions.
+	 */
+	private final ScheduledFuture<?> ticker;
+
+	/**
+	 * The start time of the phase each worker is running.
+	 */
+	private final Map<Thread, Long> started = new ConcurrentHashMap<Thread, Long>();
+
+	private final AtomicLong arrivals = new AtomicLong();
+
+	/**
+	 * The phases completed in the current interval and the time they ran within it.
+	 */
+	private long completions;
+	private long busy;
+
+	/**
+	 * The time at which the current interval ends.
+	 */
+	private final AtomicLong deadline;
+
+	private long intervalStart;
+
+	/**
+	 * Smoothed arrivals per nanosecond and phase duration in nanoseconds.
+	 */
+	private double rate;
+	private double duration;
+
+	private int target;
+
+	private long adjustments;
+
+	/**
+	 * Create an executor that adjusts itself every second.
+	 * @param min The minimum number of workers.
+	 * @param max The maximum number of workers.
+	 */
+	public AdaptiveExecutorService(int min, int max) {
+		this(min, max, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param min The minimum number of workers.
+	 * @param max The maximum number of workers.
+	 * @param interval The interval over which phases are measured before each adjustment.
+	 * @param unit The unit of the interval.
+	 */
+	public AdaptiveExecutorService(int min, int max, long interval, TimeUnit unit) {
+		this(min, max, interval, unit, Clock.SYSTEM, TICKER);
+	}
+
+	/**
+	 * @param clock The clock used to measure phases.
+	 * @param timer The executor of the timer that ends each interval, or null for none.
+	 */
+	AdaptiveExecutorService(int min, int max, long interval, TimeUnit unit, Clock clock, ScheduledExecutorService timer) {
+		super(min, max, interval, unit, new LinkedBlockingQueue<Runnable>());
+		if (min < 1 || max < min || interval <= 0) {
+			throw new IllegalArgumentException("require 1 <= min <= max and a positive interval");
+		}
+		this.min = min;
+		this.max = max;
+		this.interval = unit.toNanos(interval);
+		this.clock = clock;
+		this.target = min;
+		this.intervalStart = clock.nanoTime();
+		this.deadline = new AtomicLong(intervalStart + this.interval);
+		this.ticker = timer == null ? null : timer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				adjust();
+			}
+		}, this.interval, this.interval, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		arrivals.incrementAndGet();
+		super.execute(command);
+		adjust();
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		started.put(t, clock.nanoTime());
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		synchronized (this) {
+			// under the monitor, so that adjust() sees the phase either running or completed.
+			final Long start = started.remove(Thread.currentThread());
+			busy += ranSince(start, clock.nanoTime());
+			completions++;
+		}
+		adjust();
+	}
+
+	@Override
+	protected void terminated() {
+		if (ticker != null) {
+			ticker.cancel(false);
+		}
+	}
+
+	/**
+	 * @return The time a phase that started at start has run within the current interval, as of now.
+	 */
+	private long ranSince(long start, long now) {
+		return now - (start - intervalStart > 0 ? start : intervalStart);
+	}
+
+	/**
+	 * If the current interval has ended, recompute the target. Only the thread that ends the interval does so.
+	 */
+	void adjust() {
+		final long now = clock.nanoTime();
+		final long end = deadline.get();
+		if (now - end < 0 || !deadline.compareAndSet(end, now + interval)) {
+			return;
+		}
+		synchronized (this) {
+			final long elapsed = now - intervalStart;
+			// running phases are charged with the part of this interval they have run; the rest goes to the next.
+			long ran = busy;
+			for (Long start : started.values()) {
+				ran += ranSince(start, now);
+			}
+			intervalStart = now;
+			final long n = completions;
+			busy = 0;
+			completions = 0;
+			final double r = (double)arrivals.getAndSet(0) / elapsed;
+			rate = rate == 0 ? r : ALPHA * r + (1 - ALPHA) * rate;
+			if (ran > 0 || n > 0) {
+				final double d = (double)ran / Math.max(n, 1);
+				duration = duration == 0 ? d : ALPHA * d + (1 - ALPHA) * duration;
+			}
+
+			int next = (int)Math.ceil(rate * duration * HEADROOM);
+			if (!getQueue().isEmpty()) {
+				next = Math.max(next, target + 1);
+			}
+			next = Math.max(min, Math.min(max, next));
+			if (next != target) {
+				target = next;
+				adjustments++;
+				setCorePoolSize(next);
+			}
+		}
+	}
+
+	/**
+	 * @return The current target number of workers.
+	 */
+	public synchronized int getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return The smoothed arrival rate, in phases per second.
+	 */
+	public synchronized double getArrivalRate() {
+		return rate * TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * @param unit The unit of the answer.
+	 * @return The smoothed mean phase duration.
+	 */
+	public synchronized double getMeanDuration(TimeUnit unit) {
+		return duration / unit.toNanos(1);
+	}
+
+	/**
+	 * @return The number of times the target has changed.
+	 */
+	public synchronized long getAdjustments() {
+		return adjustments;
+	}
+
+	@Override
+	public String toString() {
+		return "{\"target\":" + getTarget() + ",\"poolSize\":" + getPoolSize() + ",\"arrivalRate\":" + getArrivalRate()
+			+ ",\"meanDurationMicros\":" + getMeanDuration(TimeUnit.MICROSECONDS) + ",\"adjustments\":" + getAdjustments() + "}";
+	}
+}
@@ -0,0 +1,20 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.List;
+
+/**
+ * Performs a batch of operations in one call on behalf of a {@link GroupCommit}.
+ *
+ * @param <O> The type of an operation.
+ * @param <R> The type of the result of an operation.
+ */
+public interface Batcher<O, R> {
+
+	/**
+	 * Perform the specified operations. This method is called on an asynchronous thread and may block.
+	 * @param operations The operations, in submission order.
+	 * @return The results of the operations, in the same order.
+	 * @throws Exception If the batch failed, in which case every operation in it fails.
+	 */
+	List<R> execute(List<O> operations) throws Exception;
+}
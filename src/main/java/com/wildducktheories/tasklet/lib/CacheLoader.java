@@ -0,0 +1,18 @@
+package com.wildducktheories.tasklet.lib;
+
+/**
+ * Loads the value of a key on behalf of a {@link SingleFlightCache}.
+ *
+ * @param <K> The type of a key.
+ * @param <V> The type of a value.
+ */
+public interface CacheLoader<K, V> {
+
+	/**
+	 * Load the value of the specified key. This method is called on an asynchronous thread and may block.
+	 * @param key The key.
+	 * @return The value of the key.
+	 * @throws Exception If the load failed, in which case every tasklet waiting for the key fails.
+	 */
+	V load(K key) throws Exception;
+}
@@ -0,0 +1,22 @@
+package com.wildducktheories.tasklet.lib;
+
+/**
+ * The source of time of the classes in this package that measure it, so that their tests can control it.
+ */
+interface Clock {
+
+	/**
+	 * The clock of {@link System#nanoTime()}.
+	 */
+	Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * @return The current time in nanoseconds, with the same meaning as {@link System#nanoTime()}.
+	 */
+	long nanoTime();
+}
@@ -0,0 +1,61 @@
+package com.wildducktheories.tasklet.lib;
+
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Holds the eventual result of an operation performed on behalf of a suspended {@link Tasklet}.
+ * <p>
+ * A {@link Tasklet} obtains a {@link Completion} when it hands an operation to a library component, suspends
+ * itself, and reads the result with {@link #get()} once the component has resumed it.
+ *
+ * @param <V> The type of the result.
+ */
+public final class Completion<V> {
+
+	private boolean done;
+	private V value;
+	private Throwable failure;
+
+	/**
+	 * @return True if the operation has completed, successfully or not.
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return The result of the operation.
+	 * @throws IllegalStateException If the operation has not completed.
+	 * @throws RuntimeException If the operation failed. Checked exceptions are wrapped.
+	 */
+	public synchronized V get() {
+		if (!done) {
+			throw new IllegalStateException("illegal state: the operation has not completed");
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException("operation failed", failure);
+		}
+		return value;
+	}
+
+	/**
+	 * @return The failure of the operation or null if it has not failed.
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	synchronized void complete(V value) {
+		this.value = value;
+		this.done = true;
+	}
+
+	synchronized void fail(Throwable failure) {
+		this.failure = failure;
+		this.done = true;
+	}
+}
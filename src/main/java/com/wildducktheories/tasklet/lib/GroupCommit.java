@@ -0,0 +1,241 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerNotRunningException;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Coalesces small blocking operations submitted by many {@link Tasklet} instances into batches that are each
+ * performed by a single call to a {@link Batcher}.
+ * <p>
+ * Instead of going ASYNC to perform its own blocking call, a tasklet submits the operation from a synchronous
+ * phase and returns {@link Directive#WAIT}:
+ * <pre>
+ * case 0:
+ *     pending = commit.submit(this, row);
+ *     state = 1;
+ *     return Directive.WAIT;
+ * case 1:
+ *     id = pending.get();
+ *     ...
+ * </pre>
+ * The first submission after the stage goes idle schedules a single flusher tasklet as {@link Directive#ASYNC}
+ * on the submitting tasklet's {@link Scheduler}. The flusher waits until the batch is full or the oldest pending
+ * operation has waited for the maximum delay, performs the batch, completes each operation's {@link Completion}
+ * and resumes each contributing tasklet with {@link Directive#SYNC}. It keeps flushing until no operations are
+ * pending, so N tasklets cost one blocked thread and about N/batch-size blocking calls rather than N of each.
+ * <p>
+ * A {@link GroupCommit} may be shared by tasklets of several schedulers; each tasklet is resumed with its own.
+ *
+ * @param <O> The type of an operation.
+ * @param <R> The type of the result of an operation.
+ */
+public class GroupCommit<O, R> {
+
+	private final Batcher<O, R> batcher;
+
+	private final int maxBatch;
+
+	private final long maxDelay;
+
+	/**
+	 * The operations awaiting a flush.
+	 */
+	private List<Pending<O, R>> pending = new ArrayList<Pending<O, R>>();
+
+	/**
+	 * The time at which the oldest pending operation was submitted.
+	 */
+	private long oldest;
+
+	/**
+	 * True while a flusher is scheduled or running.
+	 */
+	private boolean flushing;
+
+	/**
+	 * @param batcher Performs each batch.
+	 * @param maxBatch The maximum number of operations per batch.
+	 * @param maxDelay The maximum time an operation waits for its batch to fill.
+	 * @param unit The unit of maxDelay.
+	 */
+	public GroupCommit(Batcher<O, R> batcher, int maxBatch, long maxDelay, TimeUnit unit) {
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+		}
+		this.batcher = batcher;
+		this.maxBatch = maxBatch;
+		this.maxDelay = unit.toNanos(maxDelay);
+	}
+
+	/**
+	 * Suspend the specified tasklet until the specified operation has been performed as part of a batch. This
+	 * method should be called from a synchronous phase of the tasklet, which should then return
+	 * {@link Directive#WAIT}. The scheduling loop of the tasklet's scheduler must be running.
+	 * @param tasklet The submitting tasklet.
+	 * @param operation The operation.
+	 * @return The {@link Completion} that holds the result of the operation once the tasklet is resumed.
+	 * @throws SchedulerNotRunningException If a flusher was needed but could not be started, in which case the
+	 * tasklet is not suspended and the operations already pending fail with the same exception.
+	 */
+	public Completion<R> submit(Tasklet tasklet, O operation) {
+		final Scheduler scheduler = SchedulerAPI.get().getScheduler();
+		final Completion<R> completion = new Completion<R>();
+		final Pending<O, R> p = new Pending<O, R>(operation, completion);
+		final boolean start;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				oldest = p.submitted;
+			}
+			pending.add(p);
+			start = !flushing;
+			flushing = true;
+			if (pending.size() >= maxBatch) {
+				notifyAll();
+			}
+		}
+		if (start) {
+			// the flusher is started before the tasklet is suspended, so a failure to start it leaves nothing suspended.
+			try {
+				scheduler.schedule(new Flusher(), Directive.ASYNC);
+			} catch (RuntimeException e) {
+				abandon(e);
+				throw e;
+			}
+		}
+		p.suspended(scheduler.suspend(tasklet));
+		return completion;
+	}
+
+	/**
+	 * Fail and resume every pending operation after a flusher could not be started, so that the next submission
+	 * starts another.
+	 */
+	private void abandon(Throwable failure) {
+		final List<Pending<O, R>> abandoned;
+		synchronized (this) {
+			abandoned = pending;
+			pending = new ArrayList<Pending<O, R>>();
+			flushing = false;
+		}
+		for (Pending<O, R> p : abandoned) {
+			p.completion.fail(failure);
+			p.resume();
+		}
+	}
+
+	/**
+	 * Wait until a batch is ready, then remove it from pending.
+	 */
+	private synchronized List<Pending<O, R>> take() {
+		long wait;
+		while (pending.size() < maxBatch && (wait = oldest + maxDelay - System.nanoTime()) > 0) {
+			try {
+				TimeUnit.NANOSECONDS.timedWait(this, wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		final List<Pending<O, R>> batch;
+		if (pending.size() <= maxBatch) {
+			batch = pending;
+			pending = new ArrayList<Pending<O, R>>();
+		} else {
+			batch = new ArrayList<Pending<O, R>>(pending.subList(0, maxBatch));
+			pending.subList(0, maxBatch).clear();
+			// the leftovers have been waiting since they were submitted, not since this batch was taken.
+			oldest = pending.get(0).submitted;
+		}
+		return batch;
+	}
+
+	private void flush(List<Pending<O, R>> batch) {
+		final List<O> operations = new ArrayList<O>(batch.size());
+		for (Pending<O, R> p : batch) {
+			operations.add(p.operation);
+		}
+		try {
+			final List<R> results = batcher.execute(operations);
+			if (results == null || results.size() != batch.size()) {
+				throw new IllegalStateException("illegal state: batcher returned "
+						+ (results == null ? "null" : results.size() + " results") + " for " + batch.size() + " operations");
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).completion.complete(results.get(i));
+			}
+		} catch (Throwable e) {
+			// an Error fails the batch too, rather than leaving its tasklets suspended.
+			for (Pending<O, R> p : batch) {
+				p.completion.fail(e);
+			}
+		} finally {
+			for (Pending<O, R> p : batch) {
+				p.resume();
+			}
+		}
+	}
+
+	/**
+	 * Flushes batches on an asynchronous thread until no operations are pending.
+	 */
+	private final class Flusher implements Tasklet {
+		@Override
+		public Directive task() {
+			flush(take());
+			synchronized (GroupCommit.this) {
+				if (pending.isEmpty()) {
+					flushing = false;
+					return Directive.DONE;
+				}
+			}
+			return Directive.ASYNC;
+		}
+	}
+
+	/**
+	 * An operation awaiting a flush. Its tasklet is suspended after the operation joins pending, so the operation
+	 * may be performed before its {@link Rescheduler} is known; whichever of {@link #suspended(Rescheduler)} and
+	 * {@link #resume()} happens last resumes the tasklet.
+	 */
+	private static final class Pending<O, R> {
+		final O operation;
+		final Completion<R> completion;
+		final long submitted = System.nanoTime();
+		private Rescheduler rescheduler;
+		private boolean resumed;
+
+		Pending(O operation, Completion<R> completion) {
+			this.operation = operation;
+			this.completion = completion;
+		}
+
+		void suspended(Rescheduler rescheduler) {
+			synchronized (this) {
+				if (!resumed) {
+					this.rescheduler = rescheduler;
+					return;
+				}
+			}
+			rescheduler.resume(Directive.SYNC);
+		}
+
+		void resume() {
+			final Rescheduler r;
+			synchronized (this) {
+				resumed = true;
+				r = rescheduler;
+			}
+			if (r != null) {
+				r.resume(Directive.SYNC);
+			}
+		}
+	}
+}
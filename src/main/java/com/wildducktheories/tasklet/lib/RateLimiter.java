@@ -0,0 +1,138 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.concurrent.TimeUnit;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerNotRunningException;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * A token bucket that throttles {@link Tasklet} instances without blocking any thread.
+ * <p>
+ * Tokens accrue at a fixed rate up to a maximum burst. A tasklet acquires permits from a synchronous phase and
+ * returns the {@link Directive} answered by {@link #acquire(Tasklet, int, Directive)}:
+ * <pre>
+ * case 0:
+ *     state = 1;
+ *     return limiter.acquire(this, 1, Directive.ASYNC);
+ * case 1:
+ *     // call the throttled service
+ * </pre>
+ * If enough tokens are available, the requested directive is answered and the tasklet continues immediately.
+ * Otherwise the permits are reserved, the tasklet is rescheduled with the requested directive by a timer of its
+ * {@link Scheduler} at the time the reserved tokens will have accrued, and {@link Directive#WAIT} is answered.
+ * Reservations are granted in the order they are made.
+ * <p>
+ * Since the timer expires in the scheduling loop, a tasklet that must wait can only do so on a scheduler whose loop
+ * is active: on the default scheduler of a thread that has not called {@link Scheduler#run()},
+ * {@link #acquire(Tasklet, int, Directive)} throws a {@link SchedulerNotRunningException} instead.
+ * <p>
+ * A limiter holds only its token count and the time it was last refilled; waiting tasklets are held by their
+ * schedulers' timers, so an application can use as many limiters as it needs. A limiter may be shared by the
+ * tasklets of several schedulers.
+ */
+public class RateLimiter {
+
+	/**
+	 * Tokens per nanosecond.
+	 */
+	private final double rate;
+
+	private final double burst;
+
+	/**
+	 * The available tokens, negative while permits are reserved ahead of the refill.
+	 */
+	private double tokens;
+
+	private long refilled;
+
+	private final Clock clock;
+
+	/**
+	 * Create a limiter whose bucket is initially full.
+	 * @param permits The number of permits that accrue per unit.
+	 * @param unit The unit.
+	 * @param burst The maximum number of tokens the bucket holds.
+	 */
+	public RateLimiter(double permits, TimeUnit unit, int burst) {
+		this(permits, unit, burst, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param clock The clock by which tokens accrue.
+	 */
+	RateLimiter(double permits, TimeUnit unit, int burst, Clock clock) {
+		if (permits <= 0 || burst < 1) {
+			throw new IllegalArgumentException("permits and burst must be positive");
+		}
+		this.rate = permits / unit.toNanos(1);
+		this.burst = burst;
+		this.tokens = burst;
+		this.clock = clock;
+		this.refilled = clock.nanoTime();
+	}
+
+	/**
+	 * Acquire permits on behalf of the specified tasklet, which must be running on the synchronous thread of
+	 * the current thread's {@link Scheduler}.
+	 * @param tasklet The acquiring tasklet.
+	 * @param permits The number of permits.
+	 * @param directive The {@link Directive} with which the tasklet is to continue once the permits are acquired.
+	 * @return The specified directive if the permits were acquired immediately, otherwise {@link Directive#WAIT}.
+	 * @throws SchedulerNotRunningException If the tasklet must wait but its scheduler cannot delay it. The permits
+	 * are not acquired.
+	 */
+	public Directive acquire(Tasklet tasklet, int permits, Directive directive) {
+		final long delay = reserve(permits);
+		if (delay <= 0) {
+			return directive;
+		}
+		try {
+			SchedulerAPI.get().getScheduler().schedule(tasklet, directive, delay, TimeUnit.NANOSECONDS);
+		} catch (RuntimeException e) {
+			release(permits);
+			throw e;
+		}
+		return Directive.WAIT;
+	}
+
+	/**
+	 * Acquire permits only if they are available now.
+	 * @return True if the permits were acquired.
+	 */
+	public synchronized boolean tryAcquire(int permits) {
+		refill(clock.nanoTime());
+		if (tokens < permits) {
+			return false;
+		}
+		tokens -= permits;
+		return true;
+	}
+
+	/**
+	 * @return The number of nanoseconds until the reserved permits will have accrued.
+	 */
+	private synchronized long reserve(int permits) {
+		if (permits < 1) {
+			throw new IllegalArgumentException("permits must be positive: " + permits);
+		}
+		refill(clock.nanoTime());
+		tokens -= permits;
+		return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / rate);
+	}
+
+	/**
+	 * Return permits whose reservation could not be used.
+	 */
+	private synchronized void release(int permits) {
+		tokens = Math.min(burst, tokens + permits);
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(burst, tokens + (now - refilled) * rate);
+		refilled = now;
+	}
+}
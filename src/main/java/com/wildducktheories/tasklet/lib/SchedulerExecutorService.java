@@ -0,0 +1,223 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerConfinementException;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Presents the synchronous thread of a {@link Scheduler} as a {@link ScheduledExecutorService}.
+ * <p>
+ * Plain {@link #execute(Runnable)} calls are passed straight to {@link Scheduler#execute(Runnable)}, so they cost
+ * no more than a queue insertion. Delayed and periodic tasks are tasklets whose delays are timers of the scheduler,
+ * as by {@link Scheduler#schedule(Tasklet, Directive, long, TimeUnit)}; no thread sleeps on their behalf.
+ * <p>
+ * The service does not own the synchronous thread. {@link #shutdown()} stops it accepting tasks and cancels its
+ * periodic tasks; the service is terminated once its remaining delayed tasks have run or been cancelled. Runnables
+ * already handed to the scheduler run when the scheduling loop reaches them, so {@link #shutdownNow()} answers an
+ * empty list. Cancelling a delayed task releases its timer, so a pending cancelled task does not keep the scheduling
+ * loop running.
+ * <p>
+ * Tasks run only while the scheduler's loop is active, in {@link Scheduler#run()} or
+ * {@link Scheduler#step(int, long, TimeUnit)}. A thread's default scheduler runs SYNC tasklets from its schedule()
+ * calls without a loop, but not commands: tasks passed to {@link #execute(Runnable)} wait until the loop is next
+ * run, and delayed tasks, whose timers could never expire, are rejected.
+ */
+public class SchedulerExecutorService extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final Scheduler scheduler;
+
+	/**
+	 * The delayed and periodic tasks that have not finished.
+	 */
+	private final Map<Task<?>, Boolean> tasks = new IdentityHashMap<Task<?>, Boolean>();
+
+	private boolean shutdown;
+
+	/**
+	 * @param scheduler The scheduler whose synchronous thread runs the tasks.
+	 */
+	public SchedulerExecutorService(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (isShutdown()) {
+			throw new RejectedExecutionException("executor has been shut down");
+		}
+		scheduler.execute(command);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return start(new Task<Object>(Executors.callable(command), System.nanoTime() + unit.toNanos(delay), 0, false), delay, unit);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return start(new Task<V>(callable, System.nanoTime() + unit.toNanos(delay), 0, false), delay, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		return start(new Task<Object>(Executors.callable(command), System.nanoTime() + unit.toNanos(initialDelay), unit.toNanos(period), true), initialDelay, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if (delay <= 0) {
+			throw new IllegalArgumentException("delay must be positive");
+		}
+		return start(new Task<Object>(Executors.callable(command), System.nanoTime() + unit.toNanos(initialDelay), unit.toNanos(delay), false), initialDelay, unit);
+	}
+
+	/**
+	 * @throws RejectedExecutionException If the service has been shut down or the scheduler cannot delay the task.
+	 */
+	private <V> Task<V> start(Task<V> task, long delay, TimeUnit unit) {
+		synchronized (this) {
+			if (shutdown) {
+				throw new RejectedExecutionException("executor has been shut down");
+			}
+			tasks.put(task, Boolean.TRUE);
+		}
+		try {
+			scheduler.schedule(task, Directive.SYNC, delay, unit);
+		} catch (IllegalStateException e) {
+			// for example, a SchedulerNotRunningException.
+			finished(task);
+			throw new RejectedExecutionException(e.getMessage(), e);
+		}
+		return task;
+	}
+
+	@Override
+	public void shutdown() {
+		final Task<?>[] periodic;
+		synchronized (this) {
+			shutdown = true;
+			periodic = tasks.keySet().toArray(new Task<?>[tasks.size()]);
+			notifyAll();
+		}
+		for (Task<?> task : periodic) {
+			if (task.period != 0) {
+				task.cancel(false);
+			}
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		return Collections.emptyList();
+	}
+
+	@Override
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public synchronized boolean isTerminated() {
+		return shutdown && tasks.isEmpty();
+	}
+
+	@Override
+	public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!isTerminated()) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	private synchronized void finished(Task<?> task) {
+		tasks.remove(task);
+		notifyAll();
+	}
+
+	/**
+	 * A delayed or periodic task. It is a {@link Tasklet} with a single synchronous phase that is rescheduled by a timer
+	 * for each period.
+	 */
+	private final class Task<V> extends FutureTask<V> implements ScheduledFuture<V>, Tasklet {
+
+		/**
+		 * The period in nanoseconds: 0 for a one-shot task, positive for a fixed rate and negative for a fixed delay.
+		 */
+		final long period;
+
+		private volatile long deadline;
+
+		Task(Callable<V> callable, long deadline, long period, boolean fixedRate) {
+			super(callable);
+			this.deadline = deadline;
+			this.period = fixedRate ? period : -period;
+		}
+
+		@Override
+		public Directive task() {
+			if (period == 0) {
+				run();
+				return Directive.DONE;
+			}
+			if (!runAndReset()) {
+				return Directive.DONE;
+			}
+			deadline = period > 0 ? deadline + period : System.nanoTime() - period;
+			final long delay = deadline - System.nanoTime();
+			if (delay <= 0) {
+				// a fixed rate task that has fallen behind runs again immediately.
+				return Directive.SYNC;
+			}
+			scheduler.schedule(this, Directive.SYNC, delay, TimeUnit.NANOSECONDS);
+			return Directive.WAIT;
+		}
+
+		@Override
+		protected void done() {
+			finished(this);
+			if (isCancelled()) {
+				try {
+					// releases the timer, which would otherwise keep the scheduling loop running until it expired.
+					scheduler.schedule(this, Directive.DONE);
+				} catch (SchedulerConfinementException e) {
+					// cancelled on another thread; the timer is discarded when it expires.
+				}
+			}
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			final long d = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+			return d < 0 ? -1 : (d > 0 ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerNotRunningException;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * A bounded cache whose misses are loaded by a {@link CacheLoader} on an asynchronous thread, once per key no matter
+ * how many tasklets ask for the key while it is loading.
+ * <p>
+ * A tasklet asks for a key from a synchronous phase and returns the directive it is given:
+ * <pre>
+ * case 0:
+ *     state = 1;
+ *     return cache.get(this, key, value);
+ * case 1:
+ *     use(value.get());
+ *     ...
+ * </pre>
+ * On a hit, the value's {@link Completion} is completed immediately and the answer is {@link Directive#SYNC}, so
+ * the tasklet continues without leaving the synchronous thread. On a miss, the tasklet is suspended and the answer
+ * is {@link Directive#WAIT}. The first miss for a key schedules a single loader tasklet as {@link Directive#ASYNC}
+ * on the requesting tasklet's {@link Scheduler}; later misses for the same key join its waiters. When the load
+ * finishes, every waiter's {@link Completion} is completed with the value, or failed with the exception, and each
+ * waiter is resumed with {@link Directive#SYNC}. A failed load is not cached.
+ * <p>
+ * Loaded values expire a fixed time after they were loaded. When the cache holds more than its maximum size, the
+ * least recently used entries that are not loading are evicted. An entry that is loading is never evicted, since a
+ * second miss would then start a second load, so the cache may exceed its maximum size by the number of loads in
+ * progress. An entry that is invalidated while it is loading still completes its waiters.
+ * <p>
+ * A {@link SingleFlightCache} may be shared by tasklets of several schedulers; each tasklet is resumed with its own.
+ *
+ * @param <K> The type of a key.
+ * @param <V> The type of a value.
+ */
+public class SingleFlightCache<K, V> {
+
+	private final CacheLoader<K, V> loader;
+
+	private final int maxSize;
+
+	private final long ttl;
+
+	/**
+	 * The entries in access order, least recently used first.
+	 */
+	private final LinkedHashMap<K, Slot<V>> entries;
+
+	private long hits;
+
+	private long misses;
+
+	private long loads;
+
+	/**
+	 * @param loader Loads each missing key.
+	 * @param maxSize The maximum number of entries.
+	 * @param ttl The time for which a loaded value may be used.
+	 * @param unit The unit of ttl.
+	 */
+	public SingleFlightCache(CacheLoader<K, V> loader, final int maxSize, long ttl, TimeUnit unit) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		}
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("ttl must be positive: " + ttl);
+		}
+		this.loader = loader;
+		this.maxSize = maxSize;
+		this.ttl = unit.toNanos(ttl);
+		this.entries = new LinkedHashMap<K, Slot<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Slot<V>> eldest) {
+				if (size() > maxSize) {
+					evict();
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Complete the specified completion with the value of the specified key, suspending the specified tasklet if the
+	 * value must be loaded first. This method should be called from a synchronous phase of the tasklet, which
+	 * should then return the answer. If the answer is {@link Directive#WAIT}, the scheduling loop of the tasklet's
+	 * scheduler must be running.
+	 * @param tasklet The requesting tasklet.
+	 * @param key The key.
+	 * @param completion An incomplete {@link Completion} that holds the value once the tasklet next runs.
+	 * @return {@link Directive#SYNC} on a hit, {@link Directive#WAIT} on a miss.
+	 * @throws SchedulerNotRunningException If a load was needed but could not be started, in which case the
+	 * tasklet is not suspended and every tasklet waiting for the key fails with the same exception.
+	 */
+	public Directive get(Tasklet tasklet, K key, Completion<V> completion) {
+		final Scheduler scheduler = SchedulerAPI.get().getScheduler();
+		final Waiter<V> waiter = new Waiter<V>(completion);
+		final Slot<V> entry;
+		final boolean start;
+		synchronized (this) {
+			Slot<V> e = entries.get(key);
+			if (e != null && e.waiters == null) {
+				if (System.nanoTime() - e.expires < 0) {
+					hits++;
+					completion.complete(e.value);
+					return Directive.SYNC;
+				}
+				entries.remove(key);
+				e = null;
+			}
+			misses++;
+			start = e == null;
+			if (start) {
+				e = new Slot<V>();
+				entries.put(key, e);
+				loads++;
+			}
+			// the waiter is added under the lock so that it cannot miss the end of a load in progress.
+			e.waiters.add(waiter);
+			entry = e;
+		}
+		if (start) {
+			// the load is started before the tasklet is suspended, so a failure to start it leaves nothing suspended.
+			try {
+				scheduler.schedule(new Load(key, entry), Directive.ASYNC);
+			} catch (RuntimeException e) {
+				finish(key, entry, null, e);
+				throw e;
+			}
+		}
+		waiter.suspended(scheduler.suspend(tasklet));
+		return Directive.WAIT;
+	}
+
+	/**
+	 * Evict least recently used entries that are not loading until the cache is back within its maximum size.
+	 * Called with the monitor held.
+	 */
+	private void evict() {
+		final Iterator<Slot<V>> iter = entries.values().iterator();
+		while (entries.size() > maxSize && iter.hasNext()) {
+			if (iter.next().waiters == null) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * End the load of the specified entry: cache the value, or forget the entry if the load failed, then complete
+	 * and resume every waiter.
+	 */
+	private void finish(K key, Slot<V> entry, V value, Throwable failure) {
+		final List<Waiter<V>> waiters;
+		synchronized (this) {
+			waiters = entry.waiters;
+			entry.waiters = null;
+			if (failure == null) {
+				entry.value = value;
+				entry.expires = System.nanoTime() + ttl;
+			} else if (entries.get(key) == entry) {
+				entries.remove(key);
+			}
+			if (entries.size() > maxSize) {
+				// the entry may now be evicted in place of one that could not be.
+				evict();
+			}
+		}
+		for (Waiter<V> w : waiters) {
+			if (failure == null) {
+				w.completion.complete(value);
+			} else {
+				w.completion.fail(failure);
+			}
+		}
+		for (Waiter<V> w : waiters) {
+			w.resume();
+		}
+	}
+
+	/**
+	 * Discard the value of the specified key, if any. A load that is in progress is not affected, but its value is
+	 * not cached.
+	 * @param key The key.
+	 */
+	public synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * @return The number of entries, including those that are loading or have expired but not yet been discarded.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The number of requests answered from the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of requests that waited for a load.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of loads started.
+	 */
+	public synchronized long getLoads() {
+		return loads;
+	}
+
+	@Override
+	public String toString() {
+		return "{\"size\":" + size() + ",\"maxSize\":" + maxSize + ",\"hits\":" + getHits() + ",\"misses\":" + getMisses()
+			+ ",\"loads\":" + getLoads() + "}";
+	}
+
+	/**
+	 * Loads one key on an asynchronous thread, then completes and resumes its waiters.
+	 */
+	private final class Load implements Tasklet {
+		private final K key;
+		private final Slot<V> entry;
+
+		Load(K key, Slot<V> entry) {
+			this.key = key;
+			this.entry = entry;
+		}
+
+		@Override
+		public Directive task() {
+			V value = null;
+			Throwable failure = null;
+			try {
+				value = loader.load(key);
+			} catch (Throwable e) {
+				// an Error fails the load too, rather than leaving the entry loading for ever.
+				failure = e;
+			}
+			finish(key, entry, value, failure);
+			return Directive.DONE;
+		}
+	}
+
+	/**
+	 * A cached value or, while its waiters are not null, a load in progress.
+	 */
+	private static final class Slot<V> {
+		List<Waiter<V>> waiters = new ArrayList<Waiter<V>>();
+		V value;
+		long expires;
+	}
+
+	/**
+	 * A tasklet waiting for a load. It is suspended after it joins the waiters, so the load may end before its
+	 * {@link Rescheduler} is known; whichever of {@link #suspended(Rescheduler)} and {@link #resume()} happens last
+	 * resumes the tasklet.
+	 */
+	private static final class Waiter<V> {
+		final Completion<V> completion;
+		private Rescheduler rescheduler;
+		private boolean resumed;
+
+		Waiter(Completion<V> completion) {
+			this.completion = completion;
+		}
+
+		void suspended(Rescheduler rescheduler) {
+			synchronized (this) {
+				if (!resumed) {
+					this.rescheduler = rescheduler;
+					return;
+				}
+			}
+			rescheduler.resume(Directive.SYNC);
+		}
+
+		void resume() {
+			final Rescheduler r;
+			synchronized (this) {
+				resumed = true;
+				r = rescheduler;
+			}
+			if (r != null) {
+				r.resume(Directive.SYNC);
+			}
+		}
+	}
+}
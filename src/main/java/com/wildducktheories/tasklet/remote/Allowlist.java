@@ -0,0 +1,104 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.wildducktheories.tasklet.Directive;
+
+/**
+ * The classes that a {@link Worker} may deserialize from a request.
+ * <p>
+ * Java serialization runs code of the classes named by the stream, so a worker must not deserialize classes chosen by
+ * whoever can reach its socket. Each entry is either the name of a class, as returned by {@link Class#getName()}, or
+ * a package name followed by a '.', which allows every class in that package and its subpackages. Arrays are allowed
+ * if their component type is; proxy classes never are. The boxed primitives, {@link String}, {@link Number},
+ * {@link Enum} and {@link Directive} are always allowed.
+ * <p>
+ * The check is made by {@link ObjectInputStream#resolveClass(ObjectStreamClass)}, before any class named by the
+ * stream is loaded, which works on every Java version the library supports.
+ */
+final class Allowlist {
+
+	private static final Set<String> BUILTIN = new HashSet<String>(Arrays.asList(
+		Boolean.class.getName(), Byte.class.getName(), Character.class.getName(), Short.class.getName(),
+		Integer.class.getName(), Long.class.getName(), Float.class.getName(), Double.class.getName(),
+		Number.class.getName(), String.class.getName(), Enum.class.getName(), Directive.class.getName()));
+
+	private final Set<String> classes = new HashSet<String>();
+
+	private final List<String> packages = new ArrayList<String>();
+
+	/**
+	 * @param entries Class names and package prefixes, as described above.
+	 */
+	Allowlist(String... entries) {
+		for (String entry : entries) {
+			if (entry.endsWith(".")) {
+				packages.add(entry);
+			} else {
+				classes.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * @param name A class name, as returned by {@link Class#getName()}.
+	 * @return True if the class may be deserialized.
+	 */
+	boolean allows(String name) {
+		int dims = 0;
+		while (dims < name.length() && name.charAt(dims) == '[') {
+			dims++;
+		}
+		if (dims > 0) {
+			if (name.charAt(dims) != 'L') {
+				// an array of primitives.
+				return true;
+			}
+			name = name.substring(dims + 1, name.length() - 1);
+		}
+		if (BUILTIN.contains(name) || classes.contains(name)) {
+			return true;
+		}
+		for (String prefix : packages) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return A stream that reads only the classes allowed by the receiver.
+	 */
+	ObjectInputStream open(InputStream in)
+		throws IOException
+	{
+		return new ObjectInputStream(in) {
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc)
+				throws IOException, ClassNotFoundException
+			{
+				if (!allows(desc.getName())) {
+					throw new InvalidClassException(desc.getName(), "not allowed by the worker");
+				}
+				return super.resolveClass(desc);
+			}
+
+			@Override
+			protected Class<?> resolveProxyClass(String[] interfaces)
+				throws IOException, ClassNotFoundException
+			{
+				throw new InvalidClassException("proxy classes are not allowed by the worker");
+			}
+		};
+	}
+}
@@ -0,0 +1,22 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A bidirectional byte stream between a {@link RemoteExecutor} and a {@link Worker}.
+ */
+public interface Connection extends Closeable {
+
+	/**
+	 * @return The stream from which frames sent by the peer are read.
+	 */
+	InputStream getInputStream() throws IOException;
+
+	/**
+	 * @return The stream to which frames destined for the peer are written.
+	 */
+	OutputStream getOutputStream() throws IOException;
+}
@@ -0,0 +1,185 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Encodes and decodes the frames exchanged between a {@link RemoteExecutor} and a {@link Worker}.
+ * <p>
+ * Each frame is laid out as:
+ * <pre>
+ * int  length   number of bytes that follow this field
+ * long id       request identifier, echoed by the worker in the reply
+ * byte kind     REQUEST, RESULT or FAILURE
+ * byte[] body
+ * </pre>
+ * The body of a REQUEST is a serialized {@link Tasklet}. The body of a RESULT is the ordinal of the {@link Directive}
+ * returned by the remote phase followed by the serialized {@link Tasklet}. The body of a FAILURE is a serialized
+ * {@link Throwable}.
+ * <p>
+ * Because every frame carries its own identifier, any number of requests may be outstanding on one connection
+ * and replies may arrive in any order.
+ */
+final class Frames {
+
+	static final byte REQUEST = 0;
+	static final byte RESULT = 1;
+	static final byte FAILURE = 2;
+
+	/**
+	 * The size of the id and kind fields.
+	 */
+	private static final int HEADER = 9;
+
+	/**
+	 * Upper bound on the length of a frame, used to detect a corrupt stream.
+	 */
+	private static final int MAX_LENGTH = 256 * 1024 * 1024;
+
+	private static final Directive[] DIRECTIVES = Directive.values();
+
+	private Frames() {}
+
+	/**
+	 * A decoded frame.
+	 */
+	static final class Frame {
+		final long id;
+		final byte kind;
+		final byte[] body;
+
+		Frame(long id, byte kind, byte[] body) {
+			this.id = id;
+			this.kind = kind;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Write a frame. The caller is responsible for serializing concurrent writers and for flushing.
+	 */
+	static void write(DataOutputStream out, long id, byte kind, byte[] body)
+		throws IOException
+	{
+		out.writeInt(HEADER + body.length);
+		out.writeLong(id);
+		out.writeByte(kind);
+		out.write(body);
+	}
+
+	/**
+	 * @return The next frame or null if the stream ended cleanly at a frame boundary.
+	 */
+	static Frame read(DataInputStream in)
+		throws IOException
+	{
+		final int b = in.read();
+		if (b < 0) {
+			return null;
+		}
+		final int length = (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+		if (length < HEADER || length > MAX_LENGTH) {
+			throw new StreamCorruptedException("illegal frame length: " + length);
+		}
+		final long id = in.readLong();
+		final byte kind = in.readByte();
+		final byte[] body = new byte[length - HEADER];
+		in.readFully(body);
+		return new Frame(id, kind, body);
+	}
+
+	static byte[] request(Tasklet tasklet)
+		throws IOException
+	{
+		return serialize(-1, tasklet);
+	}
+
+	static byte[] result(Directive directive, Tasklet tasklet)
+		throws IOException
+	{
+		return serialize(directive.ordinal(), tasklet);
+	}
+
+	static byte[] failure(Throwable t) {
+		try {
+			return serialize(-1, t);
+		} catch (IOException e) {
+			// the failure itself could not be serialized, so send a description of it instead.
+			try {
+				return serialize(-1, new RuntimeException(t.toString()));
+			} catch (IOException impossible) {
+				throw new IllegalStateException(impossible);
+			}
+		}
+	}
+
+	static Directive directive(byte[] body)
+		throws IOException
+	{
+		if (body.length == 0 || (body[0] & 0xff) >= DIRECTIVES.length) {
+			throw new StreamCorruptedException("illegal directive in result frame");
+		}
+		return DIRECTIVES[body[0]];
+	}
+
+	/**
+	 * @param body A frame body.
+	 * @param offset The offset of the serialized object within the body.
+	 * @return The deserialized object.
+	 */
+	static Object deserialize(byte[] body, int offset)
+		throws IOException
+	{
+		return deserialize(body, offset, null);
+	}
+
+	/**
+	 * @param body A frame body.
+	 * @param offset The offset of the serialized object within the body.
+	 * @param allowed The classes that may be deserialized, or null for any class.
+	 * @return The deserialized object.
+	 * @throws java.io.InvalidClassException If the body names a class that is not allowed.
+	 */
+	static Object deserialize(byte[] body, int offset, Allowlist allowed)
+		throws IOException
+	{
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(body, offset, body.length - offset);
+		final ObjectInputStream in = allowed == null ? new ObjectInputStream(bytes) : allowed.open(bytes);
+		try {
+			return in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("class not found: " + e.getMessage(), e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param prefix A byte to write ahead of the object or -1 for none.
+	 */
+	private static byte[] serialize(int prefix, Object o)
+		throws IOException
+	{
+		if (!(o instanceof java.io.Serializable)) {
+			throw new NotSerializableException(o.getClass().getName());
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		if (prefix >= 0) {
+			bytes.write(prefix);
+		}
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,345 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Dispatches the remote phases of {@link RemoteTasklet} instances to a pool of {@link Worker} processes.
+ * <p>
+ * The executor holds one {@link Connection} per {@link Transport}, opened lazily and re-opened after a failure.
+ * Requests are spread across connections in round-robin order and pipelined: a request is queued for a writer
+ * thread as soon as it is submitted and written without waiting for replies to earlier requests on the same
+ * connection, so submitting a request never blocks on the network. A reader thread per connection matches replies
+ * to requests by identifier and resumes the corresponding tasklets.
+ */
+public class RemoteExecutor implements Closeable {
+
+	private final Pipeline[] pipelines;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final AtomicLong ids = new AtomicLong();
+
+	private volatile boolean closed;
+
+	/**
+	 * @param transports One {@link Transport} per worker process.
+	 */
+	public RemoteExecutor(Transport... transports) {
+		if (transports.length == 0) {
+			throw new IllegalArgumentException("at least one transport is required");
+		}
+		pipelines = new Pipeline[transports.length];
+		for (int i = 0; i < transports.length; i++) {
+			pipelines[i] = new Pipeline(transports[i]);
+		}
+	}
+
+	/**
+	 * Send the delegate of the specified tasklet to a worker. The tasklet is resumed by a reader thread when the
+	 * worker replies or when the request fails.
+	 */
+	void submit(RemoteTasklet tasklet) {
+		final byte[] body;
+		try {
+			body = Frames.request(tasklet.outbound());
+		} catch (IOException e) {
+			tasklet.failed(e);
+			return;
+		}
+		if (closed) {
+			tasklet.failed(new IOException("executor closed"));
+			return;
+		}
+		final int i = (next.getAndIncrement() & Integer.MAX_VALUE) % pipelines.length;
+		pipelines[i].send(ids.incrementAndGet(), body, tasklet);
+	}
+
+	/**
+	 * Close all connections. Outstanding requests fail.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Pipeline p : pipelines) {
+			p.close();
+		}
+	}
+
+	/**
+	 * The requests sent to one worker, spread over successive connections to that worker.
+	 * <p>
+	 * Requests are queued by {@link #send(long, byte[], RemoteTasklet)}, which never blocks, and written by a writer
+	 * thread, which also opens the connection. Connecting and writing therefore never happen on the thread that
+	 * submits a request, which is usually the synchronous thread of a scheduler.
+	 */
+	private static final class Pipeline {
+
+		private final Transport transport;
+
+		/**
+		 * Requests not yet written, in submission order. Guarded by the monitor.
+		 */
+		private final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+
+		/**
+		 * The open connection or null if there is none. Guarded by the monitor.
+		 */
+		private Session session;
+
+		/**
+		 * Guarded by the monitor.
+		 */
+		private Thread writer;
+
+		/**
+		 * Guarded by the monitor.
+		 */
+		private boolean closed;
+
+		Pipeline(Transport transport) {
+			this.transport = transport;
+		}
+
+		void send(long id, byte[] body, RemoteTasklet tasklet) {
+			synchronized (this) {
+				if (!closed) {
+					queue.addLast(new Request(id, body, tasklet));
+					if (writer == null) {
+						writer = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								write();
+							}
+						}, "tasklet-remote-writer[" + transport + "]");
+						writer.setDaemon(true);
+						writer.start();
+					} else {
+						notifyAll();
+					}
+					return;
+				}
+			}
+			tasklet.failed(new IOException("executor closed"));
+		}
+
+		/**
+		 * Write queued requests until the pipeline is closed. Each pass writes everything queued so far and
+		 * flushes once. Runs on the writer thread.
+		 */
+		private void write() {
+			final List<Request> batch = new ArrayList<Request>();
+			while (true) {
+				Session s;
+				synchronized (this) {
+					while (queue.isEmpty() && !closed) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// only close() stops the writer.
+						}
+					}
+					if (closed) {
+						return;
+					}
+					batch.addAll(queue);
+					queue.clear();
+					s = session;
+				}
+				if (s == null) {
+					try {
+						s = open();
+					} catch (IOException e) {
+						for (Request r : batch) {
+							r.tasklet.failed(e);
+						}
+						batch.clear();
+						continue;
+					}
+				}
+				for (Request r : batch) {
+					s.pending.put(r.id, r.tasklet);
+				}
+				try {
+					for (Request r : batch) {
+						Frames.write(s.out, r.id, Frames.REQUEST, r.body);
+					}
+					s.out.flush();
+				} catch (IOException e) {
+					broken(s, e);
+				}
+				batch.clear();
+				synchronized (this) {
+					if (session == s) {
+						continue;
+					}
+				}
+				// the reader broke the session while the batch was being written; fail what it missed.
+				broken(s, new EOFException("connection closed by worker"));
+			}
+		}
+
+		/**
+		 * Open a connection, start its reader thread and make it the current session. Called by the writer thread.
+		 */
+		private Session open()
+			throws IOException
+		{
+			final Connection c = transport.connect();
+			final Session s;
+			final DataInputStream in;
+			try {
+				s = new Session(c, new DataOutputStream(new BufferedOutputStream(c.getOutputStream())));
+				in = new DataInputStream(new BufferedInputStream(c.getInputStream()));
+			} catch (IOException e) {
+				c.close();
+				throw e;
+			}
+			synchronized (this) {
+				if (closed) {
+					c.close();
+					throw new IOException("executor closed");
+				}
+				session = s;
+			}
+			final Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					read(s, in);
+				}
+			}, "tasklet-remote-reader[" + transport + "]");
+			reader.setDaemon(true);
+			reader.start();
+			return s;
+		}
+
+		private void read(Session s, DataInputStream in) {
+			try {
+				Frames.Frame frame;
+				while ((frame = Frames.read(in)) != null) {
+					final RemoteTasklet tasklet = s.pending.remove(frame.id);
+					if (tasklet == null) {
+						continue;
+					}
+					try {
+						switch (frame.kind) {
+						case Frames.RESULT:
+							final Directive directive = Frames.directive(frame.body);
+							tasklet.completed((Tasklet) Frames.deserialize(frame.body, 1), directive);
+							break;
+						case Frames.FAILURE:
+							tasklet.failed((Throwable) Frames.deserialize(frame.body, 0));
+							break;
+						default:
+							throw new IOException("unexpected frame kind: " + frame.kind);
+						}
+					} catch (IOException e) {
+						tasklet.failed(e);
+					} catch (ClassCastException e) {
+						tasklet.failed(e);
+					}
+				}
+				broken(s, new EOFException("connection closed by worker"));
+			} catch (IOException e) {
+				broken(s, e);
+			}
+		}
+
+		/**
+		 * Discard the specified session and fail every request awaiting a reply on it.
+		 * <p>
+		 * Requests are not retried since a remote phase may have had side effects before the connection failed.
+		 */
+		private void broken(Session s, IOException cause) {
+			synchronized (this) {
+				if (session == s) {
+					session = null;
+				}
+			}
+			try {
+				s.connection.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			final Iterator<RemoteTasklet> iter = s.pending.values().iterator();
+			while (iter.hasNext()) {
+				final RemoteTasklet tasklet = iter.next();
+				iter.remove();
+				tasklet.failed(cause);
+			}
+		}
+
+		void close() {
+			final Session s;
+			final List<Request> unsent;
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+				s = session;
+				unsent = new ArrayList<Request>(queue);
+				queue.clear();
+			}
+			final IOException cause = new IOException("executor closed");
+			for (Request r : unsent) {
+				r.tasklet.failed(cause);
+			}
+			if (s != null) {
+				broken(s, cause);
+			}
+		}
+	}
+
+	/**
+	 * A request that has been submitted but not yet written.
+	 */
+	private static final class Request {
+
+		final long id;
+
+		final byte[] body;
+
+		final RemoteTasklet tasklet;
+
+		Request(long id, byte[] body, RemoteTasklet tasklet) {
+			this.id = id;
+			this.body = body;
+			this.tasklet = tasklet;
+		}
+	}
+
+	/**
+	 * One connection and the requests awaiting a reply on it.
+	 */
+	private static final class Session {
+
+		final Connection connection;
+
+		/**
+		 * Written only by the writer thread of the owning {@link Pipeline}.
+		 */
+		final DataOutputStream out;
+
+		final Map<Long, RemoteTasklet> pending = new ConcurrentHashMap<Long, RemoteTasklet>();
+
+		Session(Connection connection, DataOutputStream out) {
+			this.connection = connection;
+			this.out = out;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.Serializable;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * A {@link Tasklet} that runs the {@link Directive#ASYNC} phases of a serializable delegate in a {@link Worker} process
+ * instead of on a thread of the local {@link com.wildducktheories.tasklet.Scheduler}.
+ * <p>
+ * The delegate is written exactly as it would be for in-process execution. Its synchronous phases run on the
+ * scheduler's synchronous thread as usual. When the delegate returns {@link Directive#ASYNC}, this tasklet suspends
+ * itself, ships the delegate to a worker via a {@link RemoteExecutor} and resumes, with the {@link Directive}
+ * returned by the remote phase, once the worker replies with the updated delegate.
+ * <p>
+ * Since the delegate's state travels by value, the instance that executes after a remote phase is a copy of the
+ * instance that was sent. Callers should therefore keep a reference to this tasklet, rather than to the delegate,
+ * and use {@link #getDelegate()} to inspect its state. For the same reason, the delegate must not refer to state
+ * owned by the synchronous thread, must not suspend itself and must not return {@link Directive#WAIT} from a
+ * remote phase.
+ * <p>
+ * {@link Directive#READ} phases of the delegate, whether answered by a local phase or by a remote one, run as
+ * {@link Directive#SYNC} phases. A READ phase runs on a reader thread, and a tasklet that suspended itself there
+ * for its next remote phase could be resumed by the reply before its WAIT had reached the scheduler.
+ * <p>
+ * If the remote phase fails, the failure is reported on {@link System#err}, recorded for {@link #getFailure()} and the
+ * tasklet is completed with {@link Directive#DONE}.
+ */
+public final class RemoteTasklet implements Tasklet {
+
+	private final RemoteExecutor executor;
+
+	private Tasklet delegate;
+
+	/**
+	 * The {@link Rescheduler} obtained when the tasklet last suspended itself for a remote phase.
+	 */
+	private Rescheduler rescheduler;
+
+	private Throwable failure;
+
+	/**
+	 * @param executor The executor used to run the asynchronous phases of the delegate.
+	 * @param delegate A {@link Tasklet} that also implements {@link Serializable}.
+	 */
+	public RemoteTasklet(RemoteExecutor executor, Tasklet delegate) {
+		if (!(delegate instanceof Serializable)) {
+			throw new IllegalArgumentException("delegate must be serializable: " + delegate.getClass().getName());
+		}
+		this.executor = executor;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Directive task() {
+		final Directive directive = delegate.task();
+		if (directive != Directive.ASYNC) {
+			return local(directive);
+		}
+		rescheduler = SchedulerAPI.get().getScheduler().suspend(this);
+		executor.submit(this);
+		return Directive.WAIT;
+	}
+
+	/**
+	 * @return The current copy of the delegate.
+	 */
+	public synchronized Tasklet getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @return The failure of the last remote phase or null if there was none.
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Called by the {@link RemoteExecutor} when a remote phase completes successfully.
+	 */
+	void completed(Tasklet updated, Directive directive) {
+		final Rescheduler r;
+		synchronized (this) {
+			delegate = updated;
+			r = rescheduler;
+			rescheduler = null;
+		}
+		r.resume(local(directive));
+	}
+
+	/**
+	 * @return The directive with which the next local phase of the delegate runs.
+	 */
+	private static Directive local(Directive directive) {
+		// the next phase may return ASYNC, so it must run where the tasklet can suspend itself.
+		return directive == Directive.READ ? Directive.SYNC : directive;
+	}
+
+	/**
+	 * Called by the {@link RemoteExecutor} when a remote phase could not be completed.
+	 */
+	void failed(Throwable t) {
+		final Rescheduler r;
+		synchronized (this) {
+			failure = t;
+			r = rescheduler;
+			rescheduler = null;
+		}
+		t.printStackTrace(System.err);
+		r.resume(Directive.DONE);
+	}
+
+	/**
+	 * @return The delegate, as it is to be sent to a worker.
+	 */
+	synchronized Tasklet outbound() {
+		return delegate;
+	}
+}
@@ -0,0 +1,90 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A {@link Transport} that connects to a {@link Worker} listening on a TCP socket, usually on the loopback interface.
+ */
+public final class SocketTransport implements Transport {
+
+	/**
+	 * The connect timeout, in milliseconds, used unless another is specified.
+	 */
+	public static final int CONNECT_TIMEOUT = 10000;
+
+	private final InetSocketAddress address;
+
+	private final int timeout;
+
+	/**
+	 * @param port The port of a {@link Worker} listening on the loopback interface.
+	 */
+	public SocketTransport(int port) {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * @param address The address of the {@link Worker}.
+	 */
+	public SocketTransport(InetSocketAddress address) {
+		this(address, CONNECT_TIMEOUT);
+	}
+
+	/**
+	 * @param address The address of the {@link Worker}.
+	 * @param timeout The connect timeout in milliseconds.
+	 */
+	public SocketTransport(InetSocketAddress address, int timeout) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("timeout must be positive: " + timeout);
+		}
+		this.address = address;
+		this.timeout = timeout;
+	}
+
+	@Override
+	public Connection connect() throws IOException {
+		final Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(address, timeout);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return wrap(socket);
+	}
+
+	/**
+	 * @param socket A connected socket.
+	 * @return A {@link Connection} that reads and writes the specified socket.
+	 */
+	static Connection wrap(final Socket socket) {
+		return new Connection() {
+			@Override
+			public InputStream getInputStream() throws IOException {
+				return socket.getInputStream();
+			}
+
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				return socket.getOutputStream();
+			}
+
+			@Override
+			public void close() throws IOException {
+				socket.close();
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "SocketTransport[" + address + "]";
+	}
+}
@@ -0,0 +1,18 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.IOException;
+
+/**
+ * A {@link Transport} opens {@link Connection} instances to a single worker process.
+ * <p>
+ * Implementations decide how the bytes travel (loopback TCP, a Unix-domain socket, a pipe to a child process, ...);
+ * the framing and pipelining of requests over each {@link Connection} is the responsibility of the {@link RemoteExecutor}.
+ */
+public interface Transport {
+
+	/**
+	 * @return A new, open {@link Connection} to the worker.
+	 * @throws IOException If the worker could not be reached.
+	 */
+	Connection connect() throws IOException;
+}
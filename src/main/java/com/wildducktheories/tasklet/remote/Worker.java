@@ -0,0 +1,198 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Tasklet;
+
+/**
+ * Executes the remote phases sent by a {@link RemoteExecutor}.
+ * <p>
+ * A worker is normally run as a separate JVM with the application's classes on its class path:
+ * <pre>
+ * java -cp ... com.wildducktheories.tasklet.remote.Worker port allowed...
+ * </pre>
+ * The worker listens on the loopback interface and prints the port it is bound to on standard output. Other transports
+ * can be served by passing their connections to {@link #serve(Connection)}.
+ * <p>
+ * Since a request is deserialized with Java serialization, a worker only accepts the classes it is told to allow,
+ * named by class or by package as described by {@link #Worker(int, ExecutorService, String...)}. Every class that
+ * can be reached from a delegate's fields must be allowed, or its requests fail with an
+ * {@link java.io.InvalidClassException}.
+ * <p>
+ * Requests received on one connection are executed concurrently, so a slow phase does not delay the replies to
+ * phases pipelined behind it. A phase that returns {@link Directive#ASYNC} is executed again on the worker until it
+ * returns some other directive, which is then sent back with the updated tasklet.
+ */
+public class Worker implements Closeable {
+
+	private final ServerSocket server;
+
+	/**
+	 * The service used to execute remote phases.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The classes that requests may contain.
+	 */
+	private final Allowlist allowed;
+
+	/**
+	 * @param port The loopback port to listen on, or 0 for an ephemeral port.
+	 * @param allowed The classes that requests may contain, as for {@link #Worker(int, ExecutorService, String...)}.
+	 */
+	public Worker(int port, String... allowed) throws IOException {
+		this(port, Executors.newCachedThreadPool(), allowed);
+	}
+
+	/**
+	 * @param port The loopback port to listen on, or 0 for an ephemeral port.
+	 * @param service An executor service.
+	 * @param allowed The classes that requests may contain. Each is either a class name, as returned by
+	 * {@link Class#getName()}, or a package name followed by a '.', which allows every class in that package and its
+	 * subpackages. The boxed primitives, {@link String} and {@link Directive} are always allowed.
+	 */
+	public Worker(int port, ExecutorService service, String... allowed) throws IOException {
+		this.server = new ServerSocket();
+		this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		this.executor = service;
+		this.allowed = new Allowlist(allowed);
+	}
+
+	/**
+	 * @return The port the worker is listening on.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Start accepting connections on a daemon thread.
+	 * @return The receiver.
+	 */
+	public Worker start() {
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "tasklet-worker-acceptor[" + getPort() + "]");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return this;
+	}
+
+	/**
+	 * Accept connections on the current thread until the worker is closed.
+	 */
+	public void accept() {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				if (!server.isClosed()) {
+					e.printStackTrace(System.err);
+				}
+				continue;
+			}
+			final Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					serve(SocketTransport.wrap(socket));
+				}
+			}, "tasklet-worker-reader[" + socket.getRemoteSocketAddress() + "]");
+			reader.setDaemon(true);
+			reader.start();
+		}
+	}
+
+	/**
+	 * Serve requests arriving on the specified connection until it is closed.
+	 */
+	public void serve(final Connection connection) {
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			Frames.Frame frame;
+			while ((frame = Frames.read(in)) != null) {
+				if (frame.kind != Frames.REQUEST) {
+					throw new IOException("unexpected frame kind: " + frame.kind);
+				}
+				final Frames.Frame request = frame;
+				executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						reply(out, execute(request));
+					}
+				});
+			}
+		} catch (IOException e) {
+			e.printStackTrace(System.err);
+		} finally {
+			try {
+				connection.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * @return The reply to the specified request.
+	 */
+	private Frames.Frame execute(Frames.Frame request) {
+		try {
+			final Tasklet tasklet = (Tasklet) Frames.deserialize(request.body, 0, allowed);
+			Directive directive;
+			do {
+				directive = tasklet.task();
+			} while (directive == Directive.ASYNC);
+			if (directive == Directive.WAIT) {
+				throw new IllegalStateException("a remote phase may not return WAIT");
+			}
+			return new Frames.Frame(request.id, Frames.RESULT, Frames.result(directive, tasklet));
+		} catch (Exception e) {
+			return new Frames.Frame(request.id, Frames.FAILURE, Frames.failure(e));
+		}
+	}
+
+	private void reply(DataOutputStream out, Frames.Frame reply) {
+		try {
+			synchronized (out) {
+				Frames.write(out, reply.id, reply.kind, reply.body);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// the connection is broken; the reading thread will notice and close it.
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+		executor.shutdown();
+	}
+
+	public static void main(String[] args) throws IOException {
+		final Worker worker = new Worker(args.length > 0 ? Integer.parseInt(args[0]) : 0,
+			args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[0]);
+		System.out.println(worker.getPort());
+		System.out.flush();
+		worker.accept();
+	}
+}
@@ -1,9 +1,25 @@
 package com.wildducktheories.tasklet;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.wildducktheories.tasklet.impl.APIImpl;
+import com.wildducktheories.tasklet.lib.CacheLoader;
+import com.wildducktheories.tasklet.lib.Completion;
+import com.wildducktheories.tasklet.lib.SchedulerExecutorService;
+import com.wildducktheories.tasklet.lib.SingleFlightCache;
+import com.wildducktheories.tasklet.lib.TaskletLib;
+
 public class SchedulerAPITest {
 
 	@After
@@ -117,4 +133,642 @@ public class SchedulerAPITest {
 		        .run();
 		Assert.assertTrue(done[0]);
 	}
+
+	@Test
+	public void testSuspendedTaskletIsResumed() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final int[] runs = new int[] { 0 };
+		scheduler.schedule(new Tasklet() {
+			public Directive task() {
+				if (runs[0]++ > 0) {
+					return Directive.DONE;
+				}
+				final Rescheduler rescheduler = scheduler.suspend(this);
+				new Thread() {
+					public void run() {
+						rescheduler.resume(Directive.SYNC);
+					}
+				}.start();
+				return Directive.WAIT;
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+		Assert.assertEquals(2, runs[0]);
+	}
+
+	@Test
+	public void testResumeBeforeWaitIsNotLost() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final int[] runs = new int[] { 0 };
+		scheduler.schedule(new Tasklet() {
+			public Directive task() {
+				if (runs[0]++ > 0) {
+					return Directive.DONE;
+				}
+				final Rescheduler rescheduler = scheduler.suspend(this);
+				final Thread resumer = new Thread() {
+					public void run() {
+						rescheduler.resume(Directive.SYNC);
+					}
+				};
+				resumer.start();
+				try {
+					resumer.join();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return Directive.WAIT;
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+		Assert.assertEquals(2, runs[0]);
+	}
+
+	@Test
+	public void testStaleReschedulerIsDetected() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final Rescheduler rescheduler = scheduler.suspend(TaskletLib.WAIT);
+		rescheduler.resume(Directive.DONE);
+		// a new suspension may reuse the slot of the first one.
+		final Rescheduler second = scheduler.suspend(TaskletLib.WAIT);
+		try {
+			rescheduler.resume(Directive.DONE);
+			Assert.fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		second.resume(Directive.DONE);
+		scheduler.run();
+	}
+
+	@Test
+	public void testRescheduleCancelsSuspension() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final Rescheduler[] rescheduler = new Rescheduler[1];
+		final int[] phases = new int[1];
+		final Tasklet suspended = new Tasklet() {
+			public Directive task() {
+				if (phases[0]++ == 0) {
+					rescheduler[0] = scheduler.suspend(this);
+					return Directive.WAIT;
+				}
+				return Directive.DONE;
+			}
+		};
+		scheduler.schedule(suspended, Directive.SYNC);
+		scheduler.schedule(new Tasklet() {
+			public Directive task() {
+				// requeued without its rescheduler.
+				scheduler.schedule(suspended, Directive.SYNC);
+				return Directive.DONE;
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+		Assert.assertEquals(2, phases[0]);
+		try {
+			rescheduler[0].resume(Directive.SYNC);
+			Assert.fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDelayedTaskletRunsAfterDelay() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final long[] elapsed = new long[] { -1 };
+		final long start = System.nanoTime();
+		scheduler.schedule(new Tasklet() {
+			boolean delayed;
+			public Directive task() {
+				if (!delayed) {
+					delayed = true;
+					scheduler.schedule(this, Directive.SYNC, 20, TimeUnit.MILLISECONDS);
+					return Directive.WAIT;
+				}
+				elapsed[0] = System.nanoTime() - start;
+				return Directive.DONE;
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+		Assert.assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(20));
+	}
+
+	@Test
+	public void testExecutorRunsOnSynchronousThread() throws Exception {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final SchedulerExecutorService executor = new SchedulerExecutorService(scheduler);
+		final Thread[] threads = new Thread[2];
+		final ScheduledFuture<Integer> future = executor.schedule(new Callable<Integer>() {
+			public Integer call() {
+				threads[1] = Thread.currentThread();
+				return 42;
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+		scheduler.schedule(new Tasklet() {
+			int state;
+			public Directive task() {
+				switch (state) {
+				case 0:
+					state = 1;
+					return Directive.ASYNC;
+				default:
+					// a command submitted from an asynchronous thread
+					scheduler.execute(new Runnable() {
+						public void run() {
+							threads[0] = Thread.currentThread();
+						}
+					});
+					return Directive.DONE;
+				}
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+		Assert.assertSame(Thread.currentThread(), threads[0]);
+		Assert.assertSame(Thread.currentThread(), threads[1]);
+		Assert.assertEquals(Integer.valueOf(42), future.get());
+		executor.shutdown();
+		Assert.assertTrue(executor.isTerminated());
+	}
+
+	@Test
+	public void testCancelledDelayedTaskReleasesTheLoop() {
+		for (final Scheduler scheduler : new Scheduler[] {
+			SchedulerAPI.get().newScheduler(), SchedulerAPI.get().newScheduler(SchedulerOption.CONFINED) }) {
+			final SchedulerExecutorService executor = new SchedulerExecutorService(scheduler);
+			final AtomicInteger ran = new AtomicInteger();
+			final ScheduledFuture<?> future = executor.schedule(new Runnable() {
+				public void run() {
+					ran.incrementAndGet();
+				}
+			}, 1, TimeUnit.HOURS);
+			scheduler.schedule(new Tasklet() {
+				public Directive task() {
+					future.cancel(false);
+					return Directive.DONE;
+				}
+			}, Directive.SYNC);
+			final long start = System.nanoTime();
+			scheduler.run();
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			Assert.assertEquals(0, ran.get());
+			Assert.assertTrue(future.isCancelled());
+		}
+	}
+
+	@Test
+	public void testExecutorRejectsDelaysWithoutSchedulingLoop() throws InterruptedException {
+		final Throwable[] failure = new Throwable[1];
+		// a new thread, so that its default scheduler has never had a scheduling loop.
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					final SchedulerExecutorService executor = new SchedulerExecutorService(SchedulerAPI.get().getScheduler());
+					try {
+						executor.schedule(new Runnable() {
+							public void run() {
+							}
+						}, 10, TimeUnit.MILLISECONDS);
+						Assert.fail("expected RejectedExecutionException");
+					} catch (RejectedExecutionException e) {
+						Assert.assertTrue(e.getCause() instanceof SchedulerNotRunningException);
+					}
+					executor.shutdown();
+					Assert.assertTrue(executor.isTerminated());
+				} catch (Throwable t) {
+					failure[0] = t;
+				} finally {
+					SchedulerAPI.reset();
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		Assert.assertNull(failure[0]);
+	}
+
+	@Test
+	public void testTaskletMigratesBetweenSchedulers() {
+		final Scheduler a = SchedulerAPI.get().newScheduler();
+		final Scheduler b = SchedulerAPI.get().newScheduler();
+		final Scheduler[] seen = new Scheduler[3];
+		a.schedule(new Tasklet() {
+			int state;
+			public Directive task() {
+				switch (state) {
+				case 0:
+					state = 1;
+					return SchedulerAPI.get().getScheduler().migrate(this, b);
+				case 1:
+					seen[0] = SchedulerAPI.get().getScheduler();
+					state = 2;
+					return Directive.ASYNC;
+				case 2:
+					// migrate from an asynchronous phase of b
+					state = 3;
+					return SchedulerAPI.get().getScheduler().migrate(this, a);
+				default:
+					seen[2] = SchedulerAPI.get().getScheduler();
+					return Directive.DONE;
+				}
+			}
+		}, Directive.SYNC);
+		a.run();
+		Assert.assertNull(seen[0]);
+		b.run();
+		Assert.assertSame(b, seen[0]);
+		Assert.assertNull(seen[2]);
+		a.run();
+		Assert.assertSame(a, seen[2]);
+	}
+
+	@Test
+	public void testMigrationToAConfinedSchedulerOfAnotherThreadIsRefused() throws InterruptedException {
+		final Scheduler[] confined = new Scheduler[1];
+		final Thread owner = new Thread() {
+			@Override
+			public void run() {
+				confined[0] = SchedulerAPI.get().newScheduler(SchedulerOption.CONFINED);
+			}
+		};
+		owner.start();
+		owner.join();
+		for (final Scheduler scheduler : new Scheduler[] {
+			SchedulerAPI.get().newScheduler(), SchedulerAPI.get().newScheduler(SchedulerOption.CONFINED) }) {
+			final boolean[] refused = new boolean[1];
+			final Scheduler[] seen = new Scheduler[1];
+			scheduler.schedule(new Tasklet() {
+				int state;
+				public Directive task() {
+					switch (state) {
+					case 0:
+						state = 1;
+						try {
+							return SchedulerAPI.get().getScheduler().migrate(this, confined[0]);
+						} catch (SchedulerConfinementException e) {
+							refused[0] = true;
+							return Directive.SYNC;
+						}
+					default:
+						seen[0] = SchedulerAPI.get().getScheduler();
+						return Directive.DONE;
+					}
+				}
+			}, Directive.SYNC);
+			scheduler.run();
+			Assert.assertTrue(refused[0]);
+			// the tasklet stayed with its scheduler and ran its next phase there.
+			Assert.assertSame(scheduler, seen[0]);
+		}
+	}
+
+	@Test
+	public void testReadPhasesRunConcurrentlyButNotWithWriters() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final int n = 4;
+		final CountDownLatch together = new CountDownLatch(n);
+		final AtomicInteger concurrent = new AtomicInteger();
+		final AtomicInteger overlapped = new AtomicInteger();
+		final boolean[] writing = new boolean[1];
+		for (int i = 0; i < n; i++) {
+			scheduler.schedule(new Tasklet() {
+				int state;
+				public Directive task() {
+					switch (state) {
+					case 0:
+						state = 1;
+						return Directive.READ;
+					default:
+						if (writing[0]) {
+							overlapped.incrementAndGet();
+						}
+						together.countDown();
+						try {
+							if (together.await(5, TimeUnit.SECONDS)) {
+								concurrent.incrementAndGet();
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return Directive.DONE;
+					}
+				}
+			}, Directive.SYNC);
+			scheduler.schedule(new Tasklet() {
+				public Directive task() {
+					writing[0] = true;
+					Thread.yield();
+					writing[0] = false;
+					return Directive.DONE;
+				}
+			}, Directive.SYNC);
+		}
+		scheduler.run();
+		Assert.assertEquals(n, concurrent.get());
+		Assert.assertEquals(0, overlapped.get());
+	}
+
+	@Test
+	public void testReadBatchDoesNotWaitBehindAsyncPhases() {
+		// the only executor thread is held by an ASYNC phase that a later SYNC phase releases.
+		final Scheduler scheduler = new APIImpl(Executors.newFixedThreadPool(1)).newScheduler();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger released = new AtomicInteger();
+		final AtomicInteger read = new AtomicInteger();
+		scheduler.schedule(new Tasklet() {
+			int state;
+			public Directive task() {
+				switch (state) {
+				case 0:
+					state = 1;
+					return Directive.ASYNC;
+				default:
+					try {
+						if (release.await(5, TimeUnit.SECONDS)) {
+							released.incrementAndGet();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return Directive.DONE;
+				}
+			}
+		}, Directive.SYNC);
+		for (int i = 0; i < 3; i++) {
+			scheduler.schedule(new Tasklet() {
+				int state;
+				public Directive task() {
+					switch (state) {
+					case 0:
+						state = 1;
+						return Directive.READ;
+					default:
+						read.incrementAndGet();
+						return Directive.DONE;
+					}
+				}
+			}, Directive.SYNC);
+		}
+		scheduler.schedule(new Tasklet() {
+			public Directive task() {
+				release.countDown();
+				return Directive.DONE;
+			}
+		}, Directive.SYNC, 20, TimeUnit.MILLISECONDS);
+		scheduler.run();
+		Assert.assertEquals(3, read.get());
+		Assert.assertEquals(1, released.get());
+	}
+
+	@Test
+	public void testReaderResumedDuringItsBatchIsNotLost() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final CountDownLatch resumed = new CountDownLatch(1);
+		final int[] phases = new int[1];
+		scheduler.schedule(new Tasklet() {
+			int state;
+			public Directive task() {
+				switch (state) {
+				case 0:
+					state = 1;
+					return Directive.READ;
+				case 1:
+					state = 2;
+					final Rescheduler rescheduler = SchedulerAPI.get().getScheduler().suspend(this);
+					new Thread() {
+						@Override
+						public void run() {
+							rescheduler.resume(Directive.SYNC);
+							resumed.countDown();
+						}
+					}.start();
+					return Directive.WAIT;
+				default:
+					phases[0]++;
+					return Directive.DONE;
+				}
+			}
+		}, Directive.SYNC);
+		scheduler.schedule(new Tasklet() {
+			boolean read;
+			public Directive task() {
+				if (!read) {
+					read = true;
+					return Directive.READ;
+				}
+				// step() runs the batch inline, so the resume lands before the first reader's WAIT is handled.
+				try {
+					Assert.assertTrue(resumed.await(5, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return Directive.DONE;
+			}
+		}, Directive.SYNC);
+
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		int remaining = 0;
+		while (remaining >= 0 && System.nanoTime() < deadline) {
+			remaining = scheduler.step(10, 1, TimeUnit.SECONDS);
+			if (remaining == 0) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+			}
+		}
+		Assert.assertEquals(1, phases[0]);
+		Assert.assertEquals(-1, remaining);
+	}
+
+	@Test
+	public void testStepRunsReadyWorkWithoutBlocking() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final int[] phases = new int[1];
+		scheduler.schedule(new Tasklet() {
+			int state;
+			public Directive task() {
+				phases[0]++;
+				switch (state) {
+				case 0:
+					state = 1;
+					return Directive.SYNC;
+				case 1:
+					state = 2;
+					SchedulerAPI.get().getScheduler().schedule(this, Directive.SYNC, 20, TimeUnit.MILLISECONDS);
+					return Directive.WAIT;
+				default:
+					return Directive.DONE;
+				}
+			}
+		}, Directive.SYNC);
+
+		Assert.assertEquals(1, scheduler.step(1, 1, TimeUnit.SECONDS));
+		Assert.assertEquals(1, phases[0]);
+		Assert.assertEquals(0, scheduler.step(10, 1, TimeUnit.SECONDS));
+		Assert.assertEquals(2, phases[0]);
+		final long delay = scheduler.nextDeadline(TimeUnit.MILLISECONDS);
+		Assert.assertTrue(delay >= 0 && delay <= 20);
+
+		int remaining = 0;
+		while (remaining >= 0) {
+			final long wait = scheduler.nextDeadline(TimeUnit.NANOSECONDS);
+			if (remaining == 0 && wait > 0) {
+				// the host loop would do its own work here.
+				LockSupport.parkNanos(wait);
+			}
+			remaining = scheduler.step(10, 1, TimeUnit.SECONDS);
+		}
+		Assert.assertEquals(3, phases[0]);
+	}
+
+	@Test
+	public void testCacheLoadsEachKeyOnce() {
+		final AtomicInteger loads = new AtomicInteger();
+		final SingleFlightCache<Integer, Integer> cache = new SingleFlightCache<Integer, Integer>(new CacheLoader<Integer, Integer>() {
+			public Integer load(Integer key) throws Exception {
+				loads.incrementAndGet();
+				Thread.sleep(20);
+				return key * key;
+			}
+		}, 16, 1, TimeUnit.MINUTES);
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final int n = 10;
+		final int[] values = new int[n];
+		final Directive[] answers = new Directive[n];
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			scheduler.schedule(new Tasklet() {
+				final Completion<Integer> value = new Completion<Integer>();
+				int state;
+				public Directive task() {
+					switch (state) {
+					case 0:
+						state = 1;
+						return answers[index] = cache.get(this, 7, value);
+					default:
+						values[index] = value.get();
+						return Directive.DONE;
+					}
+				}
+			}, Directive.SYNC);
+		}
+		scheduler.run();
+		Assert.assertEquals(1, loads.get());
+		for (int i = 0; i < n; i++) {
+			Assert.assertEquals(Directive.WAIT, answers[i]);
+			Assert.assertEquals(49, values[i]);
+		}
+
+		final Completion<Integer> hit = new Completion<Integer>();
+		SchedulerAPI.get().with(scheduler, new Tasklet() {
+			public Directive task() {
+				Assert.assertEquals(Directive.SYNC, cache.get(this, 7, hit));
+				return Directive.DONE;
+			}
+		});
+		Assert.assertEquals(Integer.valueOf(49), hit.get());
+		Assert.assertEquals(1, cache.getLoads());
+		Assert.assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testConfinedSchedulerRejectsOtherThreads() throws InterruptedException {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler(SchedulerOption.CONFINED);
+		final Thread owner = Thread.currentThread();
+		final int[] phases = new int[1];
+		scheduler.schedule(new Tasklet() {
+			int state;
+			public Directive task() {
+				Assert.assertSame(owner, Thread.currentThread());
+				Assert.assertSame(scheduler, SchedulerAPI.get().getScheduler());
+				phases[0]++;
+				switch (state) {
+				case 0:
+					state = 1;
+					return Directive.READ;
+				case 1:
+					state = 2;
+					final Rescheduler rescheduler = scheduler.suspend(this);
+					scheduler.execute(rescheduler.resumeLater(Directive.SYNC));
+					return Directive.WAIT;
+				case 2:
+					state = 3;
+					scheduler.schedule(this, Directive.SYNC, 5, TimeUnit.MILLISECONDS);
+					return Directive.WAIT;
+				default:
+					return Directive.DONE;
+				}
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+		Assert.assertEquals(4, phases[0]);
+
+		final RuntimeException[] thrown = new RuntimeException[1];
+		final Thread other = new Thread() {
+			@Override
+			public void run() {
+				try {
+					scheduler.schedule(TaskletLib.DONE, Directive.SYNC);
+				} catch (RuntimeException e) {
+					thrown[0] = e;
+				}
+			}
+		};
+		other.start();
+		other.join();
+		Assert.assertTrue(thrown[0] instanceof SchedulerConfinementException);
+		try {
+			scheduler.schedule(TaskletLib.DONE, Directive.ASYNC);
+			Assert.fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testConfinedSchedulerFailsFastOnAsyncPhases() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler(SchedulerOption.CONFINED);
+		scheduler.schedule(new Tasklet() {
+			public Directive task() {
+				return Directive.ASYNC;
+			}
+		}, Directive.SYNC);
+		try {
+			scheduler.run();
+			Assert.fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSuspendCancelsTheTimerOfAConfinedScheduler() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler(SchedulerOption.CONFINED);
+		final int[] phases = new int[1];
+		final Tasklet delayed = new Tasklet() {
+			public Directive task() {
+				phases[0]++;
+				return Directive.DONE;
+			}
+		};
+		scheduler.schedule(delayed, Directive.SYNC, 5, TimeUnit.MILLISECONDS);
+		final Rescheduler rescheduler = scheduler.suspend(delayed);
+		scheduler.schedule(new Tasklet() {
+			int state;
+			public Directive task() {
+				switch (state) {
+				case 0:
+					state = 1;
+					// outlast the cancelled delay before resuming.
+					scheduler.schedule(this, Directive.SYNC, 20, TimeUnit.MILLISECONDS);
+					return Directive.WAIT;
+				default:
+					Assert.assertEquals(0, phases[0]);
+					rescheduler.resume(Directive.SYNC);
+					return Directive.DONE;
+				}
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+		Assert.assertEquals(1, phases[0]);
+	}
 }
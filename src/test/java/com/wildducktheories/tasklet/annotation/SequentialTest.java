@@ -0,0 +1,87 @@
+package com.wildducktheories.tasklet.annotation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+
+public class SequentialTest {
+
+	@Sequential
+	public static class Lookup {
+		final List<String> trace;
+		final int key;
+		Thread sync;
+		int value;
+
+		public Lookup(List<String> trace, int key) {
+			this.trace = trace;
+			this.key = key;
+		}
+
+		@Phase(Directive.SYNC)
+		void prepare() {
+			sync = Thread.currentThread();
+			trace.add("prepare");
+		}
+
+		@Phase(Directive.SYNC)
+		boolean validate() {
+			trace.add("validate");
+			return key >= 0;
+		}
+
+		@Phase(Directive.ASYNC)
+		void fetch() {
+			Assert.assertNotSame(sync, Thread.currentThread());
+			trace.add("fetch");
+			value = key * key;
+		}
+
+		@Phase(Directive.WAIT)
+		void await(final Rescheduler rescheduler) {
+			// suspended on the synchronous thread, after the ASYNC phase has returned.
+			Assert.assertSame(sync, Thread.currentThread());
+			trace.add("await");
+			new Thread() {
+				@Override
+				public void run() {
+					rescheduler.resume(Directive.SYNC);
+				}
+			}.start();
+		}
+
+		@Phase(Directive.SYNC)
+		void merge() {
+			Assert.assertSame(sync, Thread.currentThread());
+			trace.add("merge");
+		}
+	}
+
+	@Test
+	public void testPhasesRunInOrder() {
+		final List<String> trace = new ArrayList<String>();
+		final LookupTasklet tasklet = new LookupTasklet(trace, 7);
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		scheduler.schedule(tasklet, LookupTasklet.INITIAL);
+		scheduler.run();
+		Assert.assertEquals(Directive.SYNC, LookupTasklet.INITIAL);
+		Assert.assertEquals(49, tasklet.value);
+		Assert.assertEquals("[prepare, validate, fetch, await, merge]", trace.toString());
+	}
+
+	@Test
+	public void testFalseEndsTheTasklet() {
+		final List<String> trace = new ArrayList<String>();
+		final LookupTasklet tasklet = new LookupTasklet(trace, -1);
+		Assert.assertEquals(Directive.DONE, tasklet.task());
+		Assert.assertEquals(Directive.DONE, tasklet.task());
+		Assert.assertEquals("[prepare, validate]", trace.toString());
+	}
+}
@@ -0,0 +1,43 @@
+package com.wildducktheories.tasklet.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Tasklet;
+
+public class HandleTableTest {
+
+	private static Tasklet tasklet() {
+		return new Tasklet() {
+			public Directive task() {
+				return Directive.DONE;
+			}
+		};
+	}
+
+	@Test
+	public void testRemoveByTaskletMakesItsHandleStale() {
+		final HandleTable table = new HandleTable();
+		final int n = 100;
+		final Tasklet[] tasklets = new Tasklet[n];
+		final long[] handles = new long[n];
+		// enough to grow the table several times.
+		for (int i = 0; i < n; i++) {
+			tasklets[i] = tasklet();
+			handles[i] = table.add(tasklets[i]);
+		}
+		for (int i = 0; i < n; i += 2) {
+			Assert.assertTrue(table.remove(tasklets[i]));
+			Assert.assertFalse(table.contains(handles[i]));
+			Assert.assertNull(table.remove(handles[i]));
+		}
+		Assert.assertEquals(n / 2, table.size());
+		for (int i = 1; i < n; i += 2) {
+			Assert.assertSame(tasklets[i], table.remove(handles[i]));
+			Assert.assertFalse(table.remove(tasklets[i]));
+		}
+		Assert.assertEquals(0, table.size());
+		Assert.assertFalse(table.remove(tasklet()));
+	}
+}
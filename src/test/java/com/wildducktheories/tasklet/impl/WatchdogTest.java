@@ -0,0 +1,157 @@
+package com.wildducktheories.tasklet.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerOption;
+import com.wildducktheories.tasklet.Tasklet;
+
+public class WatchdogTest {
+
+	private static final class Sleeper implements Tasklet {
+		public Directive task() {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return Directive.DONE;
+		}
+	}
+
+	@Test
+	public void testBlockingTaskletIsReported() {
+		final List<Class<?>> reported = Collections.synchronizedList(new ArrayList<Class<?>>());
+		final List<StackTraceElement[]> stacks = Collections.synchronizedList(new ArrayList<StackTraceElement[]>());
+		final Watchdog watchdog = new Watchdog(20, TimeUnit.MILLISECONDS, new Watchdog.Listener() {
+			@Override
+			public void blocked(Scheduler scheduler, Thread thread, Class<?> type, long elapsed, StackTraceElement[] stack) {
+				reported.add(type);
+				stacks.add(stack);
+			}
+		});
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		watchdog.watch(scheduler);
+		try {
+			for (int i = 0; i < 100; i++) {
+				scheduler.schedule(new Tasklet() {
+					public Directive task() {
+						return Directive.DONE;
+					}
+				}, Directive.SYNC);
+			}
+			scheduler.schedule(new Sleeper(), Directive.SYNC);
+			scheduler.run();
+		} finally {
+			watchdog.close();
+		}
+
+		Assert.assertEquals(Collections.<Class<?>>singletonList(Sleeper.class), reported);
+		boolean sleeping = false;
+		for (StackTraceElement e : stacks.get(0)) {
+			sleeping |= e.getClassName().equals(Sleeper.class.getName());
+		}
+		Assert.assertTrue(sleeping);
+
+		final Watchdog.Statistics statistics = watchdog.getStatistics().get(Sleeper.class);
+		Assert.assertEquals(1, statistics.getObserved());
+		Assert.assertEquals(1, statistics.getBlocked());
+		Assert.assertTrue(statistics.getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+	}
+
+	@Test
+	public void testSchedulerWorkIsNotChargedToTasklets() {
+		final List<Class<?>> reported = Collections.synchronizedList(new ArrayList<Class<?>>());
+		final Watchdog watchdog = new Watchdog(20, TimeUnit.MILLISECONDS, new Watchdog.Listener() {
+			@Override
+			public void blocked(Scheduler scheduler, Thread thread, Class<?> type, long elapsed, StackTraceElement[] stack) {
+				reported.add(type);
+			}
+		});
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		watchdog.watch(scheduler);
+		try {
+			scheduler.schedule(new Tasklet() {
+				public Directive task() {
+					// the command runs from the scheduling loop after this phase has returned.
+					scheduler.execute(new Runnable() {
+						public void run() {
+							try {
+								Thread.sleep(100);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					});
+					return Directive.DONE;
+				}
+			}, Directive.SYNC);
+			scheduler.run();
+		} finally {
+			watchdog.close();
+		}
+		Assert.assertEquals(Collections.<Class<?>>emptyList(), reported);
+	}
+
+	/**
+	 * Blocks for 100ms in 10ms steps, running a tasklet of its own after each one.
+	 */
+	private static final class Nester implements Tasklet {
+		public Directive task() {
+			final Scheduler scheduler = SchedulerAPI.get().getScheduler();
+			for (int i = 0; i < 10; i++) {
+				// runs at once, nested in this invocation.
+				scheduler.schedule(new Tasklet() {
+					public Directive task() {
+						return Directive.DONE;
+					}
+				}, Directive.SYNC);
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return Directive.DONE;
+		}
+	}
+
+	@Test
+	public void testNestedDispatchesAreChargedToTheOuterTasklet() {
+		final List<Class<?>> reported = Collections.synchronizedList(new ArrayList<Class<?>>());
+		final Watchdog watchdog = new Watchdog(40, TimeUnit.MILLISECONDS, new Watchdog.Listener() {
+			@Override
+			public void blocked(Scheduler scheduler, Thread thread, Class<?> type, long elapsed, StackTraceElement[] stack) {
+				reported.add(type);
+			}
+		});
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		watchdog.watch(scheduler);
+		try {
+			scheduler.schedule(new Nester(), Directive.SYNC);
+			scheduler.run();
+		} finally {
+			watchdog.close();
+		}
+		Assert.assertEquals(Collections.<Class<?>>singletonList(Nester.class), reported);
+	}
+
+	@Test
+	public void testConfinedSchedulerCannotBeWatched() {
+		final Watchdog watchdog = new Watchdog(20, TimeUnit.MILLISECONDS);
+		try {
+			watchdog.watch(SchedulerAPI.get().newScheduler(SchedulerOption.CONFINED));
+			Assert.fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.wildducktheories.tasklet.journal;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.Tasklet;
+
+public class JournalTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("tasklet", ".journal");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".compact").delete();
+		SchedulerAPI.reset();
+	}
+
+	static final class Counter implements Tasklet, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		int count;
+		transient boolean resumed;
+
+		Counter(int count) {
+			this.count = count;
+		}
+
+		public Directive task() {
+			resumed = true;
+			return Directive.DONE;
+		}
+	}
+
+	@Test
+	public void testSuspendedTaskletsAreRecovered() throws Exception {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		Journal journal = new Journal(file, 4096);
+		final List<JournalRescheduler> reschedulers = new ArrayList<JournalRescheduler>();
+		for (int i = 0; i < 3; i++) {
+			reschedulers.add(journal.suspend(scheduler, new Counter(i)));
+		}
+		reschedulers.get(1).resume(Directive.DONE);
+		Assert.assertEquals(2, journal.size());
+		journal.close();
+
+		final Scheduler restarted = SchedulerAPI.get().newScheduler();
+		journal = new Journal(file, 4096);
+		final List<Counter> counters = new ArrayList<Counter>();
+		final List<JournalRescheduler> recovered = new ArrayList<JournalRescheduler>();
+		Assert.assertEquals(2, journal.recover(restarted, new Recovery() {
+			@Override
+			public void recovered(Tasklet tasklet, JournalRescheduler rescheduler) {
+				counters.add((Counter) tasklet);
+				recovered.add(rescheduler);
+			}
+		}));
+		Assert.assertEquals(2, counters.get(0).count + counters.get(1).count);
+
+		for (JournalRescheduler r : recovered) {
+			r.resume(Directive.SYNC);
+		}
+		restarted.run();
+		Assert.assertTrue(counters.get(0).resumed && counters.get(1).resumed);
+		Assert.assertEquals(0, journal.size());
+		journal.close();
+	}
+
+	@Test
+	public void testCheckpointsAreCompacted() throws Exception {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		Journal journal = new Journal(file, 4096);
+		final Counter counter = new Counter(0);
+		final JournalRescheduler rescheduler = journal.suspend(scheduler, counter);
+		for (int i = 1; i <= 10000; i++) {
+			counter.count = i;
+			rescheduler.checkpoint();
+		}
+		journal.close();
+		// uncompacted, the checkpoints would take over 1MB; the mapping may still double a few times while the
+		// compactor copies, because appends do not wait for it.
+		Assert.assertTrue(file.length() < 256 * 1024);
+
+		journal = new Journal(file, 4096);
+		final Counter[] recovered = new Counter[1];
+		journal.recover(SchedulerAPI.get().newScheduler(), new Recovery() {
+			@Override
+			public void recovered(Tasklet tasklet, JournalRescheduler r) {
+				recovered[0] = (Counter) tasklet;
+			}
+		});
+		Assert.assertEquals(10000, recovered[0].count);
+		journal.close();
+	}
+
+	@Test
+	public void testRecordsAppendedDuringCompactionAreKept() throws Exception {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		Journal journal = new Journal(file, 4096);
+		final Counter[] counters = new Counter[3];
+		final JournalRescheduler[] reschedulers = new JournalRescheduler[3];
+		for (int i = 0; i < 3; i++) {
+			counters[i] = new Counter(0);
+			reschedulers[i] = journal.suspend(scheduler, counters[i]);
+		}
+		// compactions run on another thread while the checkpoints keep being appended.
+		for (int n = 1; n <= 20000; n++) {
+			final int i = n % 3;
+			if (i == 1 && n > 10000) {
+				continue;
+			}
+			counters[i].count = n;
+			reschedulers[i].checkpoint();
+			if (n == 10000) {
+				reschedulers[1].resume(Directive.DONE);
+			}
+		}
+		Assert.assertEquals(2, journal.size());
+		journal.compact();
+		journal.close();
+
+		journal = new Journal(file, 4096);
+		final List<Counter> recovered = new ArrayList<Counter>();
+		journal.recover(SchedulerAPI.get().newScheduler(), new Recovery() {
+			@Override
+			public void recovered(Tasklet tasklet, JournalRescheduler r) {
+				recovered.add((Counter) tasklet);
+			}
+		});
+		Assert.assertEquals(2, recovered.size());
+		Assert.assertEquals(counters[0].count + counters[2].count, recovered.get(0).count + recovered.get(1).count);
+		Assert.assertFalse(new File(file.getPath() + ".compact").exists());
+		journal.close();
+	}
+
+	@Test
+	public void testCheckpointAfterResumeIsNotRecorded() throws Exception {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		Journal journal = new Journal(file, 4096);
+		final Counter counter = new Counter(1);
+		final JournalRescheduler rescheduler = journal.suspend(scheduler, counter);
+		Assert.assertTrue(rescheduler.checkpoint());
+		rescheduler.resume(Directive.DONE);
+		Assert.assertFalse(rescheduler.checkpoint());
+		Assert.assertEquals(0, journal.size());
+		journal.close();
+
+		journal = new Journal(file, 4096);
+		Assert.assertEquals(0, journal.recover(SchedulerAPI.get().newScheduler(), new Recovery() {
+			@Override
+			public void recovered(Tasklet tasklet, JournalRescheduler r) {
+				Assert.fail("a resumed tasklet was recovered");
+			}
+		}));
+		journal.close();
+	}
+
+	@Test
+	public void testCompactionSucceedsIfMappingsCannotBeReleased() throws Exception {
+		final int[] kept = new int[1];
+		Journal journal = new Journal(file, 4096) {
+			@Override
+			void release(MappedByteBuffer buffer) {
+				// as on a runtime that cannot unmap: the old file stays mapped.
+				kept[0]++;
+			}
+		};
+		final Counter counter = new Counter(0);
+		final JournalRescheduler rescheduler = journal.suspend(SchedulerAPI.get().newScheduler(), counter);
+		for (int i = 1; i <= 5000; i++) {
+			counter.count = i;
+			rescheduler.checkpoint();
+		}
+		journal.compact();
+		journal.close();
+		Assert.assertTrue(kept[0] > 0);
+
+		journal = new Journal(file, 4096);
+		final Counter[] recovered = new Counter[1];
+		journal.recover(SchedulerAPI.get().newScheduler(), new Recovery() {
+			@Override
+			public void recovered(Tasklet tasklet, JournalRescheduler r) {
+				recovered[0] = (Counter) tasklet;
+			}
+		});
+		Assert.assertEquals(5000, recovered[0].count);
+		journal.close();
+	}
+}
@@ -0,0 +1,134 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveExecutorServiceTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private static final class ManualClock implements Clock {
+		volatile long now;
+
+		@Override
+		public long nanoTime() {
+			return now;
+		}
+	}
+
+	/**
+	 * A phase that hangs until it is released.
+	 */
+	private static Runnable hang(final CountDownLatch started, final CountDownLatch release) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+
+	@Test
+	public void testHungPhasesGrowThePoolWithoutCompletions() throws InterruptedException {
+		final ManualClock clock = new ManualClock();
+		final AdaptiveExecutorService executor = new AdaptiveExecutorService(1, 64, 1, TimeUnit.SECONDS, clock, null);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			final CountDownLatch first = new CountDownLatch(1);
+			executor.execute(hang(first, release));
+			Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+			final CountDownLatch queued = new CountDownLatch(3);
+			for (int i = 0; i < 3; i++) {
+				executor.execute(hang(queued, release));
+			}
+
+			// nothing completes, so only the timer ends the interval: 4 arrivals in 1s, one phase running for 1s.
+			clock.now = SECOND;
+			executor.adjust();
+			Assert.assertEquals(5, executor.getTarget());
+			Assert.assertEquals(4.0, executor.getArrivalRate(), 1e-9);
+			Assert.assertEquals(1.0, executor.getMeanDuration(TimeUnit.SECONDS), 1e-9);
+			Assert.assertTrue(queued.await(5, TimeUnit.SECONDS));
+
+			// the interval has not ended again, so nothing changes.
+			executor.adjust();
+			Assert.assertEquals(1, executor.getAdjustments());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPhasesLongerThanTheIntervalAreChargedOnlyTheirTimeInIt() throws InterruptedException {
+		final ManualClock clock = new ManualClock();
+		final AdaptiveExecutorService executor = new AdaptiveExecutorService(3, 64, 1, TimeUnit.SECONDS, clock, null);
+		final int n = 20;
+		final CountDownLatch[] release = new CountDownLatch[n];
+		try {
+			// one arrival per second, each of which runs for 3s: 3 phases are always in progress.
+			for (int k = 0; k < n; k++) {
+				clock.now = k * SECOND;
+				if (k >= 3) {
+					release[k - 3].countDown();
+					while (executor.getCompletedTaskCount() < k - 2) {
+						Thread.sleep(1);
+					}
+				}
+				executor.adjust();
+				final CountDownLatch started = new CountDownLatch(1);
+				release[k] = new CountDownLatch(1);
+				executor.execute(hang(started, release[k]));
+				Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+			}
+			Assert.assertEquals(1.0, executor.getArrivalRate(), 1e-9);
+			Assert.assertEquals(3.0, executor.getMeanDuration(TimeUnit.SECONDS), 1e-3);
+			Assert.assertEquals(4, executor.getTarget());
+		} finally {
+			for (CountDownLatch latch : release) {
+				if (latch != null) {
+					latch.countDown();
+				}
+			}
+			executor.shutdown();
+		}
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCompletedPhasesSetTheTarget() throws InterruptedException {
+		final ManualClock clock = new ManualClock();
+		final AdaptiveExecutorService executor = new AdaptiveExecutorService(1, 64, 1, TimeUnit.SECONDS, clock, null);
+		try {
+			// 10 arrivals in 1s, each of which completes in 0s: no concurrency is needed beyond the minimum.
+			for (int i = 0; i < 10; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+					}
+				});
+			}
+			// counted once afterExecute has returned.
+			while (executor.getCompletedTaskCount() < 10) {
+				Thread.sleep(1);
+			}
+			clock.now = SECOND;
+			executor.adjust();
+			Assert.assertEquals(1, executor.getTarget());
+			Assert.assertEquals(10.0, executor.getArrivalRate(), 1e-9);
+			Assert.assertEquals(0.0, executor.getMeanDuration(TimeUnit.SECONDS), 1e-9);
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,213 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerNotRunningException;
+import com.wildducktheories.tasklet.Tasklet;
+
+public class GroupCommitTest {
+
+	@After
+	public void tearDown() {
+		SchedulerAPI.reset();
+	}
+
+	/**
+	 * Doubles each operation, counting batches and operations.
+	 */
+	private static class Doubler implements Batcher<Integer, Integer> {
+		final AtomicInteger batches = new AtomicInteger();
+		final AtomicInteger operations = new AtomicInteger();
+
+		public List<Integer> execute(List<Integer> batch) throws Exception {
+			batches.incrementAndGet();
+			operations.addAndGet(batch.size());
+			final List<Integer> results = new ArrayList<Integer>(batch.size());
+			for (Integer o : batch) {
+				results.add(o * 2);
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * Submits one operation and records its result. Each invocation checks that it is not nested in another
+	 * invocation of the same tasklet.
+	 */
+	private static class Submitter implements Tasklet {
+		final GroupCommit<Integer, Integer> commit;
+		final int value;
+		Completion<Integer> pending;
+		Integer result;
+		boolean invoking;
+		int state;
+
+		Submitter(GroupCommit<Integer, Integer> commit, int value) {
+			this.commit = commit;
+			this.value = value;
+		}
+
+		public Directive task() {
+			Assert.assertFalse("re-entered", invoking);
+			invoking = true;
+			try {
+				switch (state) {
+				case 0:
+					state = 1;
+					pending = commit.submit(this, value);
+					return Directive.WAIT;
+				default:
+					result = pending.get();
+					return Directive.DONE;
+				}
+			} finally {
+				invoking = false;
+			}
+		}
+	}
+
+	@Test
+	public void testManySubmittersShareBatches() {
+		final Doubler batcher = new Doubler();
+		final GroupCommit<Integer, Integer> commit = new GroupCommit<Integer, Integer>(batcher, 16, 1, TimeUnit.MILLISECONDS);
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final int n = 200;
+		final List<Submitter> submitters = new ArrayList<Submitter>();
+		for (int i = 0; i < n; i++) {
+			final Submitter s = new Submitter(commit, i);
+			submitters.add(s);
+			scheduler.schedule(s, Directive.SYNC);
+		}
+		scheduler.run();
+		for (int i = 0; i < n; i++) {
+			Assert.assertEquals(Integer.valueOf(2 * i), submitters.get(i).result);
+		}
+		Assert.assertEquals(n, batcher.operations.get());
+		Assert.assertTrue(batcher.batches.get() < n);
+	}
+
+	@Test
+	public void testLeftoversOfAFullBatchKeepTheirDelayBound() {
+		final long maxDelay = TimeUnit.MILLISECONDS.toNanos(300);
+		final int n = 10;
+		final long[] performed = new long[n];
+		final GroupCommit<Integer, Integer> commit = new GroupCommit<Integer, Integer>(new Batcher<Integer, Integer>() {
+			int batches;
+
+			public List<Integer> execute(List<Integer> operations) throws Exception {
+				final long now = System.nanoTime();
+				for (Integer o : operations) {
+					performed[o] = now;
+				}
+				if (batches++ == 0) {
+					// every other operation is submitted while the first batch is performed.
+					Thread.sleep(250);
+				}
+				return operations;
+			}
+		}, 4, maxDelay, TimeUnit.NANOSECONDS);
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final long[] submitted = new long[n];
+		for (int i = 0; i < n; i++) {
+			final int value = i;
+			scheduler.schedule(new Submitter(commit, i) {
+				@Override
+				public Directive task() {
+					if (state == 0) {
+						submitted[value] = System.nanoTime();
+					}
+					return super.task();
+				}
+			}, Directive.SYNC);
+		}
+		scheduler.run();
+		// 2 operations are left over after the second batch; they are already due when it completes.
+		for (int i = 0; i < n; i++) {
+			final long waited = performed[i] - submitted[i];
+			Assert.assertTrue("operation " + i + " waited " + TimeUnit.NANOSECONDS.toMillis(waited) + "ms",
+					waited < maxDelay + TimeUnit.MILLISECONDS.toNanos(100));
+		}
+	}
+
+	@Test
+	public void testFailedBatchFailsEveryOperation() {
+		for (final Throwable failure : new Throwable[] { new java.io.IOException("checked"), new AssertionError("error") }) {
+			final GroupCommit<Integer, Integer> commit = new GroupCommit<Integer, Integer>(new Batcher<Integer, Integer>() {
+				public List<Integer> execute(List<Integer> operations) throws Exception {
+					if (failure instanceof Error) {
+						throw (Error) failure;
+					}
+					throw (Exception) failure;
+				}
+			}, 4, 1, TimeUnit.MILLISECONDS);
+			final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+			final List<Submitter> submitters = new ArrayList<Submitter>();
+			for (int i = 0; i < 10; i++) {
+				final Submitter s = new Submitter(commit, i) {
+					@Override
+					public Directive task() {
+						try {
+							return super.task();
+						} catch (Throwable t) {
+							Assert.assertSame(failure, t instanceof Error ? t : t.getCause());
+							return Directive.DONE;
+						}
+					}
+				};
+				submitters.add(s);
+				scheduler.schedule(s, Directive.SYNC);
+			}
+			scheduler.run();
+			for (Submitter s : submitters) {
+				Assert.assertNull(s.result);
+				Assert.assertSame(failure, s.pending.getFailure());
+			}
+		}
+	}
+
+	@Test
+	public void testStageSurvivesAFlusherThatCannotStart() {
+		final Doubler batcher = new Doubler();
+		final GroupCommit<Integer, Integer> commit = new GroupCommit<Integer, Integer>(batcher, 4, 1, TimeUnit.MILLISECONDS);
+		final Submitter first = new Submitter(commit, 1);
+		try {
+			// there is no scheduling loop to run the flusher.
+			commit.submit(first, 1);
+			Assert.fail("expected SchedulerNotRunningException");
+		} catch (SchedulerNotRunningException e) {
+			// expected
+		}
+		// returns at once because the tasklet was not suspended.
+		SchedulerAPI.get().getScheduler().run();
+
+		final Submitter second = new Submitter(commit, 2);
+		SchedulerAPI.get().newScheduler().schedule(second, Directive.SYNC).run();
+		Assert.assertEquals(Integer.valueOf(4), second.result);
+	}
+
+	@Test
+	public void testCompletionIsReadOnlyOnceDone() {
+		final Completion<Integer> completion = new Completion<Integer>();
+		Assert.assertFalse(completion.isDone());
+		try {
+			completion.get();
+			Assert.fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		completion.complete(3);
+		Assert.assertTrue(completion.isDone());
+		Assert.assertEquals(Integer.valueOf(3), completion.get());
+		Assert.assertNull(completion.getFailure());
+	}
+}
@@ -0,0 +1,115 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerNotRunningException;
+import com.wildducktheories.tasklet.Tasklet;
+
+public class RateLimiterTest {
+
+	private static final class ManualClock implements Clock {
+		long now;
+
+		@Override
+		public long nanoTime() {
+			return now;
+		}
+	}
+
+	@After
+	public void tearDown() {
+		SchedulerAPI.reset();
+	}
+
+	@Test
+	public void testBurstThenRate() {
+		final ManualClock clock = new ManualClock();
+		final RateLimiter limiter = new RateLimiter(10, TimeUnit.SECONDS, 5, clock);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(limiter.tryAcquire(1));
+		}
+		Assert.assertFalse(limiter.tryAcquire(1));
+
+		// one permit accrues every 100ms.
+		clock.now += TimeUnit.MILLISECONDS.toNanos(99);
+		Assert.assertFalse(limiter.tryAcquire(1));
+		clock.now += TimeUnit.MILLISECONDS.toNanos(1);
+		Assert.assertTrue(limiter.tryAcquire(1));
+		Assert.assertFalse(limiter.tryAcquire(1));
+
+		// an idle limiter accrues no more than its burst.
+		clock.now += TimeUnit.SECONDS.toNanos(10);
+		Assert.assertFalse(limiter.tryAcquire(6));
+		Assert.assertTrue(limiter.tryAcquire(5));
+		Assert.assertFalse(limiter.tryAcquire(1));
+	}
+
+	@Test
+	public void testWaitingTaskletsAreSpacedAtTheRate() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final RateLimiter limiter = new RateLimiter(100, TimeUnit.SECONDS, 1);
+		final int n = 6;
+		final long[] acquired = new long[n];
+		final long start = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			scheduler.schedule(new Tasklet() {
+				int state;
+				public Directive task() {
+					switch (state) {
+					case 0:
+						state = 1;
+						return limiter.acquire(this, 1, Directive.SYNC);
+					default:
+						acquired[index] = System.nanoTime() - start;
+						return Directive.DONE;
+					}
+				}
+			}, Directive.SYNC);
+		}
+		scheduler.run();
+		// the first permit is in the bucket; each of the others accrues 10ms after the one before.
+		for (int i = 1; i < n; i++) {
+			Assert.assertTrue(acquired[i] >= TimeUnit.MILLISECONDS.toNanos(10 * i) - TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+
+	@Test
+	public void testAcquireWithoutSchedulingLoopIsRejected() throws InterruptedException {
+		final ManualClock clock = new ManualClock();
+		final RateLimiter limiter = new RateLimiter(100, TimeUnit.SECONDS, 1, clock);
+		final Throwable[] failure = new Throwable[1];
+		// a new thread, so that its default scheduler has never had a scheduling loop.
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Assert.assertEquals(Directive.SYNC, limiter.acquire(TaskletLib.WAIT, 1, Directive.SYNC));
+					try {
+						limiter.acquire(TaskletLib.WAIT, 1, Directive.SYNC);
+						Assert.fail("expected SchedulerNotRunningException");
+					} catch (SchedulerNotRunningException e) {
+						// expected
+					}
+				} catch (Throwable t) {
+					failure[0] = t;
+				} finally {
+					SchedulerAPI.reset();
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		Assert.assertNull(failure[0]);
+		// the rejected reservation was returned, so the next permit accrues after 10ms, not 20ms.
+		clock.now += TimeUnit.MILLISECONDS.toNanos(10);
+		Assert.assertTrue(limiter.tryAcquire(1));
+	}
+}
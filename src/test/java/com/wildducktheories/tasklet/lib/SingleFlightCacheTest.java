@@ -0,0 +1,141 @@
+package com.wildducktheories.tasklet.lib;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.SchedulerNotRunningException;
+import com.wildducktheories.tasklet.Tasklet;
+
+public class SingleFlightCacheTest {
+
+	@After
+	public void tearDown() {
+		SchedulerAPI.reset();
+	}
+
+	/**
+	 * Squares each key, counting the loads of each key.
+	 */
+	private static class Squarer implements CacheLoader<Integer, Integer> {
+		final Map<Integer, AtomicInteger> loads = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+		public Integer load(Integer key) throws Exception {
+			AtomicInteger n = loads.get(key);
+			if (n == null) {
+				loads.put(key, n = new AtomicInteger());
+			}
+			n.incrementAndGet();
+			return key * key;
+		}
+
+		int loads(int key) {
+			final AtomicInteger n = loads.get(key);
+			return n == null ? 0 : n.get();
+		}
+	}
+
+	/**
+	 * Gets one key, then records its value or failure.
+	 */
+	private static class Getter implements Tasklet {
+		final SingleFlightCache<Integer, Integer> cache;
+		final int key;
+		final Completion<Integer> value = new Completion<Integer>();
+		int state;
+
+		Getter(SingleFlightCache<Integer, Integer> cache, int key) {
+			this.cache = cache;
+			this.key = key;
+		}
+
+		public Directive task() {
+			switch (state) {
+			case 0:
+				state = 1;
+				return cache.get(this, key, value);
+			default:
+				return Directive.DONE;
+			}
+		}
+	}
+
+	@Test
+	public void testFailedStartDoesNotPoisonKey() {
+		final Squarer loader = new Squarer();
+		final SingleFlightCache<Integer, Integer> cache = new SingleFlightCache<Integer, Integer>(loader, 4, 1, TimeUnit.MINUTES);
+		try {
+			// there is no scheduling loop to run the load.
+			cache.get(new Getter(cache, 3), 3, new Completion<Integer>());
+			Assert.fail("expected SchedulerNotRunningException");
+		} catch (SchedulerNotRunningException e) {
+			// expected
+		}
+		Assert.assertEquals(0, cache.size());
+
+		final Getter getter = new Getter(cache, 3);
+		SchedulerAPI.get().newScheduler().schedule(getter, Directive.SYNC).run();
+		Assert.assertEquals(Integer.valueOf(9), getter.value.get());
+	}
+
+	@Test
+	public void testLoadingEntryIsNotEvicted() throws InterruptedException {
+		final CountDownLatch joined = new CountDownLatch(1);
+		final Squarer squarer = new Squarer();
+		final SingleFlightCache<Integer, Integer> cache = new SingleFlightCache<Integer, Integer>(new CacheLoader<Integer, Integer>() {
+			public Integer load(Integer key) throws Exception {
+				if (key == 1) {
+					joined.await();
+				}
+				return squarer.load(key);
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final Getter a = new Getter(cache, 1);
+		final Getter b = new Getter(cache, 2);
+		final Getter c = new Getter(cache, 1) {
+			@Override
+			public Directive task() {
+				final Directive directive = super.task();
+				joined.countDown();
+				return directive;
+			}
+		};
+		scheduler.schedule(a, Directive.SYNC).schedule(b, Directive.SYNC).schedule(c, Directive.SYNC).run();
+		Assert.assertEquals(Integer.valueOf(1), a.value.get());
+		Assert.assertEquals(Integer.valueOf(4), b.value.get());
+		Assert.assertEquals(Integer.valueOf(1), c.value.get());
+		Assert.assertEquals(1, squarer.loads(1));
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testErrorFailsWaitersWithoutCaching() {
+		final AtomicInteger calls = new AtomicInteger();
+		final SingleFlightCache<Integer, Integer> cache = new SingleFlightCache<Integer, Integer>(new CacheLoader<Integer, Integer>() {
+			public Integer load(Integer key) throws Exception {
+				if (calls.incrementAndGet() == 1) {
+					throw new AssertionError("first load fails");
+				}
+				return key;
+			}
+		}, 4, 1, TimeUnit.MINUTES);
+		final Getter first = new Getter(cache, 5);
+		SchedulerAPI.get().newScheduler().schedule(first, Directive.SYNC).run();
+		Assert.assertTrue(first.value.getFailure() instanceof AssertionError);
+
+		final Getter second = new Getter(cache, 5);
+		SchedulerAPI.get().newScheduler().schedule(second, Directive.SYNC).run();
+		Assert.assertEquals(Integer.valueOf(5), second.value.get());
+		Assert.assertEquals(2, calls.get());
+	}
+}
@@ -0,0 +1,304 @@
+package com.wildducktheories.tasklet.load;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+import com.wildducktheories.tasklet.API;
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Rescheduler;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.Tasklet;
+import com.wildducktheories.tasklet.impl.APIImpl;
+import com.wildducktheories.tasklet.lib.AdaptiveExecutorService;
+import com.wildducktheories.tasklet.lib.TaskletLib;
+
+/**
+ * An open-loop load generator for {@link Scheduler} implementations.
+ * <p>
+ * Tasklets arrive at a fixed rate regardless of how quickly the scheduler keeps up, and every latency is measured
+ * from the time at which a tasklet was <em>meant</em> to arrive rather than the time at which the generator got
+ * around to scheduling it. Delays caused by a saturated scheduler are therefore charged to the tasklets that
+ * suffered them instead of being hidden by a generator that slowed down with the system it measures
+ * (coordinated omission).
+ * <p>
+ * Each arrival is one of three tasklet kinds, chosen at random according to the configured mix:
+ * <dl>
+ * <dt>sync</dt>
+ * <dd>runs a number of consecutive SYNC phases, then completes.</dd>
+ * <dt>async</dt>
+ * <dd>runs a SYNC phase, blocks for a while in an ASYNC phase, then completes in a SYNC phase.</dd>
+ * <dt>suspend</dt>
+ * <dd>runs a SYNC phase, suspends itself until a timer resumes it, then completes in a SYNC phase.</dd>
+ * </dl>
+ * Two latencies are recorded for each arrival after the warmup period: the scheduling delay, up to the start of its
+ * first phase, and the completion latency, up to the end of its last phase. Both histograms are only touched from
+ * SYNC phases, so they need no locking.
+ * <p>
+ * The report is written to standard output as a single line of JSON with latencies in nanoseconds. The harness can
+ * be run with:
+ * <pre>
+ * mvn -Pload test -DskipTests -Dload.args="--rate=20000 --duration=30 --mix=60,30,10 --executor=fixed:16"
+ * </pre>
+ * Options, with their defaults, are:
+ * <pre>
+ * --rate=10000       arrivals per second
+ * --duration=10      measured seconds
+ * --warmup=2         unmeasured seconds before the measured period
+ * --mix=60,30,10     relative weights of the sync, async and suspend kinds
+ * --hops=4           SYNC phases per sync tasklet
+ * --block=200        microseconds blocked per ASYNC phase
+ * --suspend=500      microseconds suspended per suspend tasklet
+ * --executor=cached  ASYNC executor: cached, fixed:N or adaptive:MIN:MAX
+ * --seed=1           seed for the arrival mix
+ * </pre>
+ */
+public class LoadGenerator {
+
+	private double rate = 10000;
+	private long duration = 10;
+	private long warmup = 2;
+	private int[] mix = new int[] { 60, 30, 10 };
+	private int hops = 4;
+	private long block = 200;
+	private long suspend = 500;
+	private String executor = "cached";
+	private long seed = 1;
+
+	private final Histogram delay = new Histogram(3);
+	private final Histogram completion = new Histogram(3);
+
+	private Scheduler scheduler;
+	private ScheduledExecutorService timer;
+
+	public static void main(String[] args) throws InterruptedException {
+		final LoadGenerator generator = new LoadGenerator();
+		for (String arg : args) {
+			generator.configure(arg);
+		}
+		System.out.println(generator.run());
+	}
+
+	private void configure(String arg) {
+		final int eq = arg.indexOf('=');
+		if (!arg.startsWith("--") || eq < 0) {
+			throw new IllegalArgumentException("expected --name=value: " + arg);
+		}
+		final String name = arg.substring(2, eq);
+		final String value = arg.substring(eq + 1);
+		if (name.equals("rate")) {
+			rate = Double.parseDouble(value);
+		} else if (name.equals("duration")) {
+			duration = Long.parseLong(value);
+		} else if (name.equals("warmup")) {
+			warmup = Long.parseLong(value);
+		} else if (name.equals("mix")) {
+			final String[] weights = value.split(",");
+			if (weights.length != 3) {
+				throw new IllegalArgumentException("expected --mix=sync,async,suspend: " + arg);
+			}
+			for (int i = 0; i < 3; i++) {
+				mix[i] = Integer.parseInt(weights[i].trim());
+			}
+		} else if (name.equals("hops")) {
+			hops = Integer.parseInt(value);
+		} else if (name.equals("block")) {
+			block = Long.parseLong(value);
+		} else if (name.equals("suspend")) {
+			suspend = Long.parseLong(value);
+		} else if (name.equals("executor")) {
+			executor = value;
+		} else if (name.equals("seed")) {
+			seed = Long.parseLong(value);
+		} else {
+			throw new IllegalArgumentException("unknown option: " + arg);
+		}
+	}
+
+	private ExecutorService newExecutor() {
+		if (executor.equals("cached")) {
+			return Executors.newCachedThreadPool();
+		} else if (executor.startsWith("fixed:")) {
+			return Executors.newFixedThreadPool(Integer.parseInt(executor.substring(6)));
+		} else if (executor.startsWith("adaptive:")) {
+			final String[] limits = executor.substring(9).split(":");
+			return new AdaptiveExecutorService(Integer.parseInt(limits[0]), Integer.parseInt(limits[1]));
+		}
+		throw new IllegalArgumentException("unknown executor: " + executor);
+	}
+
+	/**
+	 * Generate the configured load and answer the report.
+	 */
+	private String run() throws InterruptedException {
+		final ExecutorService service = newExecutor();
+		final API api = new APIImpl(service);
+		timer = Executors.newSingleThreadScheduledExecutor();
+		scheduler = api.newScheduler();
+
+		// keeps the scheduling loop alive between arrivals.
+		final Rescheduler anchor = scheduler.suspend(TaskletLib.WAIT);
+		final Thread loop = new Thread(scheduler, "load-scheduler");
+		loop.start();
+
+		final Random random = new Random(seed);
+		final int total = mix[0] + mix[1] + mix[2];
+		final double interval = 1e9 / rate;
+		final long unmeasured = (long) (warmup * rate);
+		final long arrivals = unmeasured + (long) (duration * rate);
+		final long start = System.nanoTime();
+		long measuredStart = start;
+
+		for (long i = 0; i < arrivals; i++) {
+			final long intended = start + (long) (i * interval);
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			if (i == unmeasured) {
+				measuredStart = intended;
+			}
+			final int pick = random.nextInt(total);
+			final Probe probe;
+			if (pick < mix[0]) {
+				probe = new SyncProbe(intended, i >= unmeasured);
+			} else if (pick < mix[0] + mix[1]) {
+				probe = new AsyncProbe(intended, i >= unmeasured);
+			} else {
+				probe = new SuspendProbe(intended, i >= unmeasured);
+			}
+			scheduler.schedule(probe, Directive.SYNC);
+		}
+		final long generated = System.nanoTime();
+
+		anchor.resume(Directive.DONE);
+		loop.join();
+		final long drained = System.nanoTime();
+		timer.shutdown();
+		service.shutdown();
+
+		final StringBuilder report = new StringBuilder();
+		report.append('{');
+		report.append("\"scheduler\":\"").append(scheduler.getClass().getSimpleName()).append("\",");
+		report.append("\"executor\":\"").append(executor).append("\",");
+		if (service instanceof AdaptiveExecutorService) {
+			report.append("\"adaptive\":").append(service).append(',');
+		}
+		report.append("\"rate\":").append(rate).append(',');
+		report.append("\"duration\":").append(duration).append(',');
+		report.append("\"warmup\":").append(warmup).append(',');
+		report.append("\"mix\":[").append(mix[0]).append(',').append(mix[1]).append(',').append(mix[2]).append("],");
+		report.append("\"hops\":").append(hops).append(',');
+		report.append("\"blockMicros\":").append(block).append(',');
+		report.append("\"suspendMicros\":").append(suspend).append(',');
+		report.append("\"measured\":").append(completion.getTotalCount()).append(',');
+		report.append("\"generatorLagNanos\":").append(generated - (start + (long) ((arrivals - 1) * interval))).append(',');
+		report.append("\"throughput\":").append(completion.getTotalCount() * 1e9 / Math.max(1, drained - measuredStart)).append(',');
+		report.append("\"schedulingDelay\":");
+		append(report, delay);
+		report.append(",\"completion\":");
+		append(report, completion);
+		report.append('}');
+		return report.toString();
+	}
+
+	private static void append(StringBuilder report, Histogram h) {
+		report.append("{\"count\":").append(h.getTotalCount());
+		report.append(",\"mean\":").append(h.getMean());
+		report.append(",\"p50\":").append(h.getValueAtPercentile(50));
+		report.append(",\"p90\":").append(h.getValueAtPercentile(90));
+		report.append(",\"p99\":").append(h.getValueAtPercentile(99));
+		report.append(",\"p99.9\":").append(h.getValueAtPercentile(99.9));
+		report.append(",\"p99.99\":").append(h.getValueAtPercentile(99.99));
+		report.append(",\"max\":").append(h.getMaxValue());
+		report.append('}');
+	}
+
+	/**
+	 * Common behaviour of the generated tasklets. Both methods are called from SYNC phases only.
+	 */
+	private abstract class Probe implements Tasklet {
+		final long intended;
+		final boolean measured;
+		int state;
+
+		Probe(long intended, boolean measured) {
+			this.intended = intended;
+			this.measured = measured;
+		}
+
+		void started() {
+			if (measured) {
+				delay.recordValue(Math.max(0, System.nanoTime() - intended));
+			}
+		}
+
+		Directive completed() {
+			if (measured) {
+				completion.recordValue(Math.max(0, System.nanoTime() - intended));
+			}
+			return Directive.DONE;
+		}
+	}
+
+	private final class SyncProbe extends Probe {
+		SyncProbe(long intended, boolean measured) {
+			super(intended, measured);
+		}
+
+		public Directive task() {
+			if (state == 0) {
+				started();
+			}
+			if (++state < hops) {
+				return Directive.SYNC;
+			}
+			return completed();
+		}
+	}
+
+	private final class AsyncProbe extends Probe {
+		AsyncProbe(long intended, boolean measured) {
+			super(intended, measured);
+		}
+
+		public Directive task() {
+			switch (state) {
+			case 0:
+				started();
+				state = 1;
+				return Directive.ASYNC;
+			case 1:
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(block));
+				state = 2;
+				return Directive.SYNC;
+			default:
+				return completed();
+			}
+		}
+	}
+
+	private final class SuspendProbe extends Probe {
+		SuspendProbe(long intended, boolean measured) {
+			super(intended, measured);
+		}
+
+		public Directive task() {
+			switch (state) {
+			case 0:
+				started();
+				state = 1;
+				final Rescheduler rescheduler = scheduler.suspend(this);
+				timer.schedule(rescheduler.resumeLater(Directive.SYNC), suspend, TimeUnit.MICROSECONDS);
+				return Directive.WAIT;
+			default:
+				return completed();
+			}
+		}
+	}
+}
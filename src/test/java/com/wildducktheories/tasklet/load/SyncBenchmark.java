@@ -0,0 +1,125 @@
+package com.wildducktheories.tasklet.load;
+
+import com.wildducktheories.tasklet.API;
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerOption;
+import com.wildducktheories.tasklet.Tasklet;
+import com.wildducktheories.tasklet.impl.APIImpl;
+
+/**
+ * Measures the throughput of SYNC-only state machines on a default {@link Scheduler} and on one created with
+ * {@link SchedulerOption#CONFINED}.
+ * <p>
+ * Each round schedules a number of tasklets on a new scheduler of each kind and runs it to completion. Every tasklet
+ * runs a number of SYNC phases, each of which updates state shared with the other tasklets, so the measured cost is
+ * almost entirely that of scheduling and dispatching a phase. Rounds alternate between the two kinds so that neither
+ * benefits from running after the other has warmed up.
+ * <p>
+ * The report is written to standard output as a single line of JSON with throughputs in phases per second. The
+ * benchmark can be run with:
+ * <pre>
+ * mvn -Pload test -DskipTests -Dload.main=com.wildducktheories.tasklet.load.SyncBenchmark -Dload.args="--rounds=10"
+ * </pre>
+ * Options, with their defaults, are:
+ * <pre>
+ * --tasklets=1000    tasklets per round
+ * --hops=1000        SYNC phases per tasklet
+ * --warmup=3         unmeasured rounds of each kind
+ * --rounds=5         measured rounds of each kind
+ * </pre>
+ */
+public class SyncBenchmark {
+
+	private int tasklets = 1000;
+	private int hops = 1000;
+	private int warmup = 3;
+	private int rounds = 5;
+
+	/**
+	 * Updated by every phase, so that the phases cannot be optimised away.
+	 */
+	private long total;
+
+	public static void main(String[] args) {
+		final SyncBenchmark benchmark = new SyncBenchmark();
+		for (String arg : args) {
+			benchmark.configure(arg);
+		}
+		System.out.println(benchmark.run());
+	}
+
+	private void configure(String arg) {
+		final int eq = arg.indexOf('=');
+		if (!arg.startsWith("--") || eq < 0) {
+			throw new IllegalArgumentException("expected --name=value: " + arg);
+		}
+		final String name = arg.substring(2, eq);
+		final int value = Integer.parseInt(arg.substring(eq + 1));
+		if (name.equals("tasklets")) {
+			tasklets = value;
+		} else if (name.equals("hops")) {
+			hops = value;
+		} else if (name.equals("warmup")) {
+			warmup = value;
+		} else if (name.equals("rounds")) {
+			rounds = value;
+		} else {
+			throw new IllegalArgumentException("unknown option: " + arg);
+		}
+	}
+
+	/**
+	 * Run the rounds and answer the report.
+	 */
+	private String run() {
+		final API api = new APIImpl();
+		double defaultBest = 0;
+		double confinedBest = 0;
+		double defaultSum = 0;
+		double confinedSum = 0;
+		for (int i = 0; i < warmup + rounds; i++) {
+			final double d = round(api.newScheduler());
+			final double c = round(api.newScheduler(SchedulerOption.CONFINED));
+			if (i >= warmup) {
+				defaultBest = Math.max(defaultBest, d);
+				confinedBest = Math.max(confinedBest, c);
+				defaultSum += d;
+				confinedSum += c;
+			}
+		}
+
+		final StringBuilder report = new StringBuilder();
+		report.append('{');
+		report.append("\"tasklets\":").append(tasklets).append(',');
+		report.append("\"hops\":").append(hops).append(',');
+		report.append("\"warmup\":").append(warmup).append(',');
+		report.append("\"rounds\":").append(rounds).append(',');
+		report.append("\"default\":{\"mean\":").append(defaultSum / rounds).append(",\"best\":").append(defaultBest).append("},");
+		report.append("\"confined\":{\"mean\":").append(confinedSum / rounds).append(",\"best\":").append(confinedBest).append("},");
+		report.append("\"speedup\":").append(confinedSum / defaultSum).append(',');
+		report.append("\"total\":").append(total);
+		report.append('}');
+		return report.toString();
+	}
+
+	/**
+	 * Run one round on the specified scheduler.
+	 * @return The throughput in phases per second.
+	 */
+	private double round(Scheduler scheduler) {
+		for (int i = 0; i < tasklets; i++) {
+			scheduler.schedule(new Tasklet() {
+				int remaining = hops;
+				public Directive task() {
+					total += remaining;
+					return --remaining > 0 ? Directive.SYNC : Directive.DONE;
+				}
+			}, Directive.SYNC);
+		}
+		final long start = System.nanoTime();
+		scheduler.run();
+		final long elapsed = System.nanoTime() - start;
+		return (double)tasklets * hops * 1e9 / elapsed;
+	}
+}
@@ -0,0 +1,161 @@
+package com.wildducktheories.tasklet.remote;
+
+import java.io.InvalidClassException;
+import java.io.Serializable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.wildducktheories.tasklet.Directive;
+import com.wildducktheories.tasklet.Scheduler;
+import com.wildducktheories.tasklet.SchedulerAPI;
+import com.wildducktheories.tasklet.Tasklet;
+
+public class RemoteTaskletTest {
+
+	private Worker worker;
+	private RemoteExecutor executor;
+
+	@Before
+	public void setUp() throws Exception {
+		worker = new Worker(0, Square.class.getName()).start();
+		executor = new RemoteExecutor(new SocketTransport(worker.getPort()));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.close();
+		worker.close();
+		SchedulerAPI.reset();
+	}
+
+	/**
+	 * A three phase tasklet whose ASYNC phase squares its input.
+	 */
+	static final class Square implements Tasklet, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		int state = 0;
+		long input;
+		long output;
+		boolean fail;
+		boolean read;
+		int rounds;
+		transient Thread merged;
+
+		Square(long input) {
+			this.input = input;
+		}
+
+		public Directive task() {
+			switch (state) {
+			case 0:
+				state = 1;
+				return Directive.ASYNC;
+			case 1:
+				if (fail) {
+					throw new IllegalStateException("failed on purpose");
+				}
+				output = input * input;
+				state = 2;
+				return read ? Directive.READ : Directive.SYNC;
+			default:
+				if (rounds > 0) {
+					rounds--;
+					state = 1;
+					return Directive.ASYNC;
+				}
+				merged = Thread.currentThread();
+				return Directive.DONE;
+			}
+		}
+	}
+
+	@Test
+	public void testAsyncPhaseRunsRemotely() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final RemoteTasklet[] tasklets = new RemoteTasklet[32];
+		final Square first = new Square(0);
+		scheduler.schedule(new Tasklet() {
+			public Directive task() {
+				for (int i = 0; i < tasklets.length; i++) {
+					tasklets[i] = new RemoteTasklet(executor, i == 0 ? first : new Square(i));
+					scheduler.schedule(tasklets[i], Directive.SYNC);
+				}
+				return Directive.DONE;
+			}
+		}, Directive.SYNC);
+		scheduler.run();
+
+		for (int i = 0; i < tasklets.length; i++) {
+			final Square square = (Square) tasklets[i].getDelegate();
+			Assert.assertNull(tasklets[i].getFailure());
+			Assert.assertEquals((long) i * i, square.output);
+			Assert.assertSame(Thread.currentThread(), square.merged);
+		}
+		// the original instance is left in the state in which it was sent.
+		Assert.assertEquals(1, first.state);
+		Assert.assertNotSame(first, tasklets[0].getDelegate());
+	}
+
+	/**
+	 * A tasklet that the worker has not been told to allow.
+	 */
+	static final class Unlisted implements Tasklet, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		boolean ran;
+
+		public Directive task() {
+			if (!ran) {
+				ran = true;
+				return Directive.ASYNC;
+			}
+			return Directive.DONE;
+		}
+	}
+
+	@Test
+	public void testWorkerRejectsClassesNotAllowed() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final RemoteTasklet tasklet = new RemoteTasklet(executor, new Unlisted());
+		scheduler.schedule(tasklet, Directive.SYNC);
+		scheduler.run();
+		Assert.assertTrue(tasklet.getFailure() instanceof InvalidClassException);
+	}
+
+	@Test
+	public void testReadAfterRemotePhaseRunsOnSynchronousThread() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		// enough tasklets that their READ phases would be batched onto reader threads.
+		final RemoteTasklet[] tasklets = new RemoteTasklet[16];
+		for (int i = 0; i < tasklets.length; i++) {
+			final Square square = new Square(i);
+			square.read = true;
+			square.rounds = 2;
+			tasklets[i] = new RemoteTasklet(executor, square);
+			scheduler.schedule(tasklets[i], Directive.SYNC);
+		}
+		scheduler.run();
+		for (int i = 0; i < tasklets.length; i++) {
+			final Square square = (Square) tasklets[i].getDelegate();
+			Assert.assertNull(tasklets[i].getFailure());
+			Assert.assertEquals((long) i * i, square.output);
+			Assert.assertSame(Thread.currentThread(), square.merged);
+		}
+	}
+
+	@Test
+	public void testRemoteFailureCompletesTasklet() {
+		final Scheduler scheduler = SchedulerAPI.get().newScheduler();
+		final Square square = new Square(3);
+		square.fail = true;
+		final RemoteTasklet tasklet = new RemoteTasklet(executor, square);
+		scheduler.schedule(tasklet, Directive.SYNC);
+		scheduler.run();
+		Assert.assertTrue(tasklet.getFailure() instanceof IllegalStateException);
+		Assert.assertNull(((Square) tasklet.getDelegate()).merged);
+	}
+}